@@ -42,6 +42,7 @@ public final class R {
         public static final int options_radioButton=0x7f090002;
         public static final int options_summary=0x7f090001;
         public static final int options_title=0x7f090000;
+        public static final int options_thumbnail=0x7f090003;
     }
     public static final class layout {
         public static final int options_main=0x7f030000;
@@ -122,6 +123,7 @@ public final class R {
         /**  List Item Content Layouts 
          */
         public static final int listItem_widgetRight_title=0x7f080003;
+        public static final int listItem_widgetRight_icon=0x7f080006;
         public static final int listItem_widgetRight_widget=0x7f080005;
     }
     public static final class xml {
@@ -23,9 +23,9 @@ package com.squishums.android.pixelatedmood;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
@@ -34,10 +34,12 @@ import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
-import com.squishums.android.pixelatedmood.drop.Drop;
-import com.squishums.android.pixelatedmood.drop.DropManager;
 import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
 import com.squishums.android.pixelatedmood.preferences.PixelatedPreferencesManager;
+import com.squishums.android.pixelatedmood.preferences.PresetDiff;
+import com.squishums.android.pixelatedmood.render.CanvasRenderTarget;
+import com.squishums.android.pixelatedmood.render.DirtyRegion;
+import com.squishums.android.pixelatedmood.render.RenderTarget;
 import com.squishums.android.pixelatedmood.system.SystemManager;
 
 public class PixelatedMood extends WallpaperService {
@@ -48,6 +50,11 @@ public class PixelatedMood extends WallpaperService {
 	/** Thread handler for the drawing thread */
 	private Handler mHandler = new Handler();
 	
+	// Number of engines using the presets. The preview and the wallpaper
+	// itself can run at the same time, so the presets are loaded for the
+	// first engine and freed after the last, and shared in between.
+	private int mPresetUsers = 0;
+	
 	
 	@Override
 	public void onCreate() {
@@ -59,6 +66,26 @@ public class PixelatedMood extends WallpaperService {
 		super.onDestroy();
 	}
 	
+	/**
+	 * Take a reference to the shared presets, loading them if this is the
+	 * first engine to use them.
+	 */
+	private synchronized void acquirePresets() {
+		if (mPresetUsers++ == 0) {
+			PixelatedPreferencesManager.loadPresets(this);
+		}
+	}
+	
+	/**
+	 * Give up a reference to the shared presets, freeing them once no engine
+	 * uses them.
+	 */
+	private synchronized void releasePresets() {
+		if (--mPresetUsers == 0) {
+			PixelatedPreferencesManager.unloadPresets();
+		}
+	}
+	
 	@Override
 	public Engine onCreateEngine() {
 		return new DropfallEngine();
@@ -70,17 +97,27 @@ public class PixelatedMood extends WallpaperService {
 		
 		private final String LOG_TAG = DropfallEngine.class.getName();
 		
+		// The drops, drop set and systems of this engine.
+		private final World mWorld = new World();
 		private SystemManager mSystemManager;
 		// DEBUG */ private FramerateCounter mFramerateCounter;
+		// DEBUG */ private RecordingRenderTarget mRecorder;
 		
 		// Whether preferences have changed between visibility state changes
 		private boolean mPreferencesChanged = false;
+		// Version of the current set this engine last switched to.
+		private int mPresetVersion;
 		
 		private int mScreenWidth = 1;
 		private int mScreenHeight = 1;
+		// Whether the surface has been sized. The drop layer and background
+		// can't be built before then.
+		private boolean mSurfaceSized = false;
 		
 		// Timestamp of last render
 		private long mLastRender;
+		// When the engine was created (ns), until the first frame is drawn.
+		private long mCreateTime;
 		
 		private int mRenderCounter = 0;
 		private final Runnable mDropDrawer = new Runnable() {
@@ -109,6 +146,13 @@ public class PixelatedMood extends WallpaperService {
 				} else if (mRenderCounter % 3 == 2) {
 					mLastRender = SystemClock.elapsedRealtime();
 					updateScreen();
+					
+					if (mCreateTime != 0) {
+						Log.i(LOG_TAG, "First frame drawn "
+								+ (System.nanoTime() - mCreateTime) / 1000000
+								+ " ms after the engine was created");
+						mCreateTime = 0;
+					}
 				}
 				
 				mRenderCounter++;
@@ -116,23 +160,35 @@ public class PixelatedMood extends WallpaperService {
 			}
 		};
 		
-		// Bitmap and Canvas used when the "trails" options is on. 
-		private Bitmap mTrailBitmap;
-		private Canvas mTrailCanvas;
+		// Everything is drawn through mRenderTarget. It is normally the canvas
+		// target itself, but may wrap it (e.g. to record the draw calls). The
+		// canvas target holds the drop layer when the "trails" option is on or
+		// the set is drawn at a reduced resolution. The layer is drawn to
+		// outside of the canvas lock.
+		private CanvasRenderTarget mCanvasTarget;
+		private RenderTarget mRenderTarget;
+		
+		// The area of the screen locked for a partial redraw. The surface may
+		// grow it when locking, so it's kept separate from the dirty region.
+		private final Rect mLockedRect = new Rect();
 		
 		
 		DropfallEngine() {
+			mCreateTime = System.nanoTime();
 			mLastRender = SystemClock.elapsedRealtime();
 			
-			Drop.setDropManager(new DropManager());
-			mSystemManager = new SystemManager();
+			mSystemManager = mWorld.getSystemManager();
+			mCanvasTarget = new CanvasRenderTarget();
+			mRenderTarget = mCanvasTarget;
 			// DEBUG */ mFramerateCounter = new FramerateCounter();
+			// DEBUG */ mRecorder = new RecordingRenderTarget(4096, mCanvasTarget);
+			// DEBUG */ mRenderTarget = mRecorder;
 			
 			// Preferences
 			SharedPreferences sharedPrefs = PreferenceManager
 					.getDefaultSharedPreferences(PixelatedMood.this);
 			sharedPrefs.registerOnSharedPreferenceChangeListener(this);
-			PixelatedPreferencesManager.loadPresets(PixelatedMood.this);
+			acquirePresets();
 
 			onPreferencesUpdated();
 			
@@ -149,6 +205,17 @@ public class PixelatedMood extends WallpaperService {
 		@Override
 		public void onDestroy() {
 			super.onDestroy();
+			
+			// Stop drawing before the presets can be freed.
+			mHandler.removeCallbacks(mDropDrawer);
+			PreferenceManager.getDefaultSharedPreferences(PixelatedMood.this)
+					.unregisterOnSharedPreferenceChangeListener(this);
+			mRenderTarget.releaseLayer();
+			if (mWorld.getPreferences() != null) {
+				PixelatedPreferencesManager.releasePreferences(
+						mWorld.getPreferences());
+			}
+			releasePresets();
 		}
 		
 		@Override
@@ -161,6 +228,7 @@ public class PixelatedMood extends WallpaperService {
 				
 				// DEBUG */ mFramerateCounter.resume();
 				
+				mRenderTarget.invalidateLayer();
 				mHandler.post(mDropDrawer);
 			} else {
 				// DEBUG */ mFramerateCounter.pause();
@@ -176,15 +244,15 @@ public class PixelatedMood extends WallpaperService {
 				int width, int height) {
 			super.onSurfaceChanged(holder, format, width, height);
 			
-			PixelatedPreferences prefs =
-					PixelatedPreferencesManager.getCurrentPreferences();
+			PixelatedPreferences prefs = mWorld.getPreferences();
 			
 			mScreenWidth = width;
 			mScreenHeight = height;
+			mSurfaceSized = true;
 			mSystemManager.setScreenDimensions(width, height);
 			
-			if (prefs.renderPrefs.trails) {
-				createTrailCanvas();
+			if (usesLayer(prefs)) {
+				createDropLayer();
 			}
 		}
 		
@@ -200,40 +268,57 @@ public class PixelatedMood extends WallpaperService {
 		}
 		
 		/**
-		 * Update the global preferences to match the selected set
+		 * Switch this engine's world to the selected set. Only what differs
+		 * from the previous set is rebuilt.
 		 */
 		public void onPreferencesUpdated() {
-			PixelatedPreferences prefs =
-					PixelatedPreferencesManager.getCurrentPreferences();
+			mPresetVersion = PixelatedPreferencesManager.getPresetVersion();
 			
-			mSystemManager.onPreferencesUpdated();
-			Drop.getDropManager().setDropCount(
-					PixelatedPreferencesManager.getCurrentPreferences()
-						.dropPrefs.count);
+			// Hold the new set before letting go of the old one, so it can't
+			// be freed in between if they're the same.
+			PixelatedPreferences oldPrefs = mWorld.getPreferences();
+			PixelatedPreferences prefs =
+					PixelatedPreferencesManager.acquireCurrentPreferences();
+			PresetDiff diff = mWorld.setPreferences(prefs);
+			if (oldPrefs != null) {
+				PixelatedPreferencesManager.releasePreferences(oldPrefs);
+			}
+			Log.i(LOG_TAG, "Switched to " + mWorld.getPlan()
+					+ ". Changed: " + diff);
 			
-			if (prefs.renderPrefs.trails) {
-				createTrailCanvas();
-			} else {
-				mTrailBitmap = null;
+			if (!usesLayer(prefs)) {
+				mRenderTarget.releaseLayer();
+			} else if (!mRenderTarget.hasLayer()
+					|| diff.changed(PresetDiff.LAYER)) {
+				// Before the surface is sized, onSurfaceChanged() creates it.
+				if (mSurfaceSized) {
+					createDropLayer();
+				}
+			} else if (diff.changed(PresetDiff.BACKGROUND)) {
+				// The layer is cleared to the background.
+				mRenderTarget.invalidateLayer();
 			}
 		}
 		
 		/*
-		 * Create or update the trails canvas.
+		 * Whether the set draws its drops onto a layer rather than straight
+		 * onto the screen.
 		 */
-		private void createTrailCanvas() {
-			PixelatedPreferences prefs =
-					PixelatedPreferencesManager.getCurrentPreferences();
-			if (mTrailBitmap != null) {
-				mTrailBitmap.recycle();
-			}
-			
-			mTrailBitmap = Bitmap.createBitmap(
-					mScreenWidth, mScreenHeight,
-					Bitmap.Config.ARGB_8888);
-			mTrailCanvas = new Canvas(mTrailBitmap);
+		private boolean usesLayer(PixelatedPreferences prefs) {
+			return prefs.renderPrefs.trails || prefs.renderPrefs.layerScale > 1;
+		}
+		
+		/*
+		 * Create or update the drop layer.
+		 */
+		private void createDropLayer() {
+			PixelatedPreferences prefs = mWorld.getPreferences();
 			
-			mTrailCanvas.drawPaint(prefs.backgroundColor);
+			mRenderTarget.createLayer(mScreenWidth, mScreenHeight,
+					mSystemManager.getBackground(),
+					prefs.renderPrefs.trailDecay,
+					prefs.renderPrefs.layerScale,
+					prefs.renderPrefs.layerFormat);
 		}
 		
 		/**
@@ -241,22 +326,47 @@ public class PixelatedMood extends WallpaperService {
 		 * happens if the thread is unable to acquire the screen canvas' lock.
 		 */
 		private void updateScreen() {
+			// Switch to a reloaded set between frames, so a frame never sees
+			// half of each.
+			if (PixelatedPreferencesManager.getPresetVersion()
+					!= mPresetVersion) {
+				onPreferencesUpdated();
+			}
+			
+			PixelatedPreferences prefs = mWorld.getPreferences();
+			if (mRenderTarget.hasLayer()) {
+				updateScreenLayer(prefs);
+				return;
+			} else if (prefs.renderPrefs.dirtyRects) {
+				updateScreenDirty();
+				return;
+			}
+			
+			mSystemManager.update();
+			
 			final SurfaceHolder holder = getSurfaceHolder();
 			Canvas canvas = null;
 			try {
 				canvas = holder.lockCanvas();
-				PixelatedPreferences prefs =
-						PixelatedPreferencesManager.getCurrentPreferences();
 				if (canvas != null) {
-					if (prefs.renderPrefs.trails) {
-						mSystemManager.process(mTrailCanvas);
-						canvas.drawBitmap(mTrailBitmap, 0, 0, null);
+					mCanvasTarget.setCanvas(canvas);
+					if (prefs.renderPrefs.raster) {
+						// The raster covers the whole screen, background
+						// included.
+						mSystemManager.render(mRenderTarget);
 					} else {
-						canvas.drawPaint(prefs.backgroundColor);
-						mSystemManager.process(canvas);
+						mRenderTarget.clear(mSystemManager.getBackground());
+						mSystemManager.render(mRenderTarget);
 					}
 					
+					// DEBUG */ if (mRenderCounter % 300 == 2) {
+					// DEBUG */ 	Log.d(LOG_TAG, mRecorder.getSummary());
+					// DEBUG */ }
+					// DEBUG */ mRecorder.reset();
 					// DEBUG */ mFramerateCounter.frame();
+					// DEBUG */ mFramerateCounter.setDropCounts(
+					// DEBUG */ 		mSystemManager.getDrawnDropCount(),
+					// DEBUG */ 		mSystemManager.getCulledDropCount());
 					// DEBUG */ mFramerateCounter.printFPS(canvas, 10, 50);
 				}
 			} finally {
@@ -265,5 +375,103 @@ public class PixelatedMood extends WallpaperService {
 				}
 			}
 		}
+		
+		/**
+		 * Compute logic and draw the drops onto the drop layer, then copy only
+		 * the parts of the layer that changed to the screen. Without trails,
+		 * the layer is cleared first and copied whole.
+		 */
+		private void updateScreenLayer(PixelatedPreferences prefs) {
+			mSystemManager.update();
+			
+			mRenderTarget.beginLayer();
+			if (!prefs.renderPrefs.trails) {
+				mRenderTarget.clear(mSystemManager.getBackground());
+			}
+			mSystemManager.render(mRenderTarget);
+			DirtyRegion dirtyRegion = mRenderTarget.finishLayer();
+			
+			final SurfaceHolder holder = getSurfaceHolder();
+			Canvas canvas = null;
+			try {
+				canvas = lockDirtyCanvas(holder, dirtyRegion);
+				if (canvas != null) {
+					mCanvasTarget.setCanvas(canvas);
+					mRenderTarget.compositeLayer();
+					canvas.restore();
+				}
+			} finally {
+				if (canvas != null) {
+					holder.unlockCanvasAndPost(canvas);
+				}
+			}
+		}
+		
+		/**
+		 * Compute logic and redraw only the parts of the screen that changed.
+		 * Falls back to a full redraw when too much of the screen changed, or
+		 * the screen contents were lost.
+		 */
+		private void updateScreenDirty() {
+			mSystemManager.update();
+			
+			final SurfaceHolder holder = getSurfaceHolder();
+			Canvas canvas = null;
+			try {
+				canvas = lockDirtyCanvas(holder,
+						mSystemManager.getDirtyRegion());
+				if (canvas != null) {
+					mCanvasTarget.setCanvas(canvas);
+					mRenderTarget.clear(mSystemManager.getBackground());
+					mSystemManager.render(mRenderTarget);
+					canvas.restore();
+				}
+			} finally {
+				if (canvas != null) {
+					holder.unlockCanvasAndPost(canvas);
+				}
+			}
+		}
+		
+		/**
+		 * Lock the parts of the screen within a dirty region. The returned
+		 * canvas is saved and clipped to the region, and must be restored
+		 * before it's unlocked. The whole screen is locked when the region
+		 * asks for a full redraw, or the surface can't preserve the rest of
+		 * the screen.
+		 * 
+		 * @param holder - the surface to lock.
+		 * @param dirtyRegion - the parts of the screen to be redrawn.
+		 * @return the locked canvas, or null if nothing needs redrawing or the
+		 * 		surface couldn't be locked.
+		 */
+		private Canvas lockDirtyCanvas(SurfaceHolder holder,
+				DirtyRegion dirtyRegion) {
+			boolean fullRedraw = dirtyRegion.isFullRedraw();
+			if (!fullRedraw && dirtyRegion.isEmpty()) {
+				// Nothing changed on screen.
+				return null;
+			}
+			
+			Canvas canvas;
+			if (fullRedraw) {
+				canvas = holder.lockCanvas();
+			} else {
+				mLockedRect.set(dirtyRegion.getBounds());
+				canvas = holder.lockCanvas(mLockedRect);
+				// The surface grows the locked area if it can't preserve the
+				// rest of the screen, in which case everything must be
+				// redrawn.
+				fullRedraw = !mLockedRect.equals(dirtyRegion.getBounds());
+			}
+			
+			if (canvas != null) {
+				canvas.save();
+				if (!fullRedraw) {
+					dirtyRegion.clip(canvas);
+				}
+			}
+			return canvas;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+package com.squishums.android.pixelatedmood;
+
+import com.squishums.android.pixelatedmood.drop.DropManager;
+import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
+import com.squishums.android.pixelatedmood.preferences.PresetDiff;
+import com.squishums.android.pixelatedmood.system.ExecutionPlan;
+import com.squishums.android.pixelatedmood.system.SystemManager;
+import com.squishums.android.pixelatedmood.util.FastRandom;
+
+
+/**
+ * Everything a single wallpaper engine simulates: its drops, the drop set it
+ * is showing, and the systems that move and draw them. Each engine has its own
+ * world, so engines running at the same time never touch each other's state.
+ *
+ * The systems are given the world when they are created, and read the drops
+ * and the drop set through it rather than through global lookups. Each frame
+ * they work from the set's ExecutionPlan rather than the set itself.
+ *
+ * A world also has its own random numbers, so a world created with a seed
+ * spawns the same drops however many other worlds run on the same thread.
+ */
+public class World {
+
+	/** Seed of every randomly seeded world when benchmarking. **/
+	public static final long BENCHMARK_SEED = 42;
+	
+	private final DropManager mDropManager = new DropManager();
+	private final FastRandom mRandom;
+	private final SystemManager mSystemManager;
+	
+	// The drop set being shown. null until the first call to setPreferences().
+	private PixelatedPreferences mPreferences;
+	// The drop set compiled for the systems. Replaced along with the set.
+	private ExecutionPlan mPlan;
+	
+	
+	/**
+	 * Creates a world with randomly seeded random numbers. When benchmarking,
+	 * they are seeded with BENCHMARK_SEED instead, so every run spawns the
+	 * same drops.
+	 */
+	public World() {
+		this(newSeed());
+	}
+	
+	/**
+	 * Creates a world whose random numbers are seeded with the given seed,
+	 * e.g. for repeatable benchmarks.
+	 * 
+	 * @param seed - the seed. Equal seeds give equal sequences.
+	 */
+	public World(long seed) {
+		mRandom = new FastRandom(seed);
+		mSystemManager = new SystemManager(this);
+	}
+	
+	/**
+	 * Returns the seed for a randomly seeded world.
+	 * 
+	 * @return the seed.
+	 */
+	private static long newSeed() {
+		long seed = FastRandom.get().nextLong();
+		// DEBUG */ seed = BENCHMARK_SEED;
+		return seed;
+	}
+	
+	/**
+	 * Returns the random numbers of this world. Only the world's own thread
+	 * may use them.
+	 * 
+	 * @return the world's generator.
+	 */
+	public FastRandom getRandom() {
+		return mRandom;
+	}
+	
+	/**
+	 * Returns the drops of this world.
+	 *
+	 * @return the DropManager holding the drops.
+	 */
+	public DropManager getDropManager() {
+		return mDropManager;
+	}
+	
+	/**
+	 * Returns the systems of this world.
+	 *
+	 * @return the SystemManager running the systems.
+	 */
+	public SystemManager getSystemManager() {
+		return mSystemManager;
+	}
+	
+	/**
+	 * Returns the drop set this world is showing. This only changes through
+	 * setPreferences(), even if the selected set changes in the meantime.
+	 *
+	 * @return the drop set, or null if none has been set.
+	 */
+	public PixelatedPreferences getPreferences() {
+		return mPreferences;
+	}
+	
+	/**
+	 * Returns the drop set this world is showing, compiled for the systems.
+	 *
+	 * @return the plan, or null if no drop set has been set.
+	 */
+	public ExecutionPlan getPlan() {
+		return mPlan;
+	}
+	
+	/**
+	 * Show a drop set. Only the parts of the world that differ between the
+	 * old and new sets are updated, and the drops on screen are kept.
+	 *
+	 * @param preferences - the drop set to show.
+	 * @return what changed from the previous set.
+	 */
+	public PresetDiff setPreferences(PixelatedPreferences preferences) {
+		PresetDiff diff = PresetDiff.between(mPreferences, preferences);
+		mPreferences = preferences;
+		mPlan = ExecutionPlan.compile(preferences);
+		if (diff.isEmpty()) {
+			return diff;
+		}
+		
+		if (diff.changed(PresetDiff.DROP_COUNT)) {
+			mDropManager.setDropCount(preferences.dropPrefs.count);
+		}
+		mSystemManager.onPreferencesUpdated(diff);
+		
+		return diff;
+	}
+}
@@ -1,14 +1,11 @@
 package com.squishums.android.pixelatedmood.component;
 
-import android.graphics.Bitmap;
-import android.graphics.Paint;
-
 public class ComponentRenderable extends PixelatedComponent{
 
-	// The bitmap for this drop.
-	public Bitmap bitmap;
-	// The filter to be used when drawing the drop.
-	public Paint filter;
+	// The index of this drop's sprite in the current set's sprite atlas.
+	public int sprite;
+	// The index of this drop's colour in the current set's colours.
+	public int color;
 	
 	public ComponentRenderable() { }
 }
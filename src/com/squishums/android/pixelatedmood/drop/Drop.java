@@ -16,17 +16,21 @@ import com.squishums.android.pixelatedmood.component.PixelatedComponent;
 public class Drop {
 	
 	/*
-	 * A static reference back to the DropManager. This allows for the
-	 * redirections of the drop's methods back to the DropManager. Comamnds
+	 * A reference back to the DropManager that owns this drop. This allows for
+	 * the redirections of the drop's methods back to the DropManager. Comamnds
 	 * *could* be done through the DropManager, but this way is both
 	 * cleaner, and clearer
 	 */
-	private static DropManager mDropManager;
+	private final DropManager mDropManager;
 	
 	/**
 	 * Constructs a drop containing all possible components.
+	 * 
+	 * @param dropManager - the DropManager that owns the drop.
 	 */
-	protected Drop() {
+	protected Drop(DropManager dropManager) {
+		mDropManager = dropManager;
+		
 		// If the system ever becomes more complex, drops could be spawned with
 		// different sets of components, but at the momemnt there is no need as
 		// all of the components are always in use.
@@ -65,23 +69,12 @@ public class Drop {
 	}
 	
 	/**
-	 * Returns the DropManager for this drop.
-	 * 
-	 * Note that since there is currently only one DropManager, this will return
-	 * the same manager for every drop.
+	 * Returns the DropManager for this drop. Each engine has its own
+	 * DropManager, so drops of different engines return different managers.
 	 * 
 	 * @return the DropManager associated with this drop
 	 */
-	public static DropManager getDropManager() {
+	public DropManager getDropManager() {
 		return mDropManager;
 	}
-	
-	/**
-	 * Associates a DropManager with this drop.
-	 * 
-	 * @param dropManager the DropManager to associate with this drop.
-	 */
-	public static void setDropManager(DropManager dropManager) {
-		mDropManager = dropManager;
-	}
 }
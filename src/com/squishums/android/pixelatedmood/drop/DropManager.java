@@ -22,7 +22,7 @@ public class DropManager {
 	// The object pool of drops, containing the unbound drops. 
 	private DropPool mDropPool;
 	// A lift containing all of the bound drops (i.e. those on the screen).
-	private List<Drop> mBoundDrops;	
+	private List<Drop> mBoundDrops = new ArrayList<Drop>();
 	
 	
 	public DropManager() { }
@@ -50,15 +50,37 @@ public class DropManager {
 	}
 	
 	/**
-	 * Sets the maximum number of drops available. This also completely removes
-	 * all previously allocated drops.
+	 * Sets the maximum number of drops available. Bound drops are kept, apart
+	 * from the most recently bound ones beyond the new maximum, which are
+	 * released. Drops no longer needed are freed along with their components.
 	 * 
 	 * @param dropCount - the new maximum number of drops.
 	 */
 	public void setDropCount(int dropCount) {
-		mDropPool = new DropPool(dropCount);
-		mDropPool.fill();
-		mBoundDrops = new ArrayList<Drop>(dropCount);
+		if (mDropPool == null) {
+			mDropPool = new DropPool(this, dropCount);
+			mBoundDrops = new ArrayList<Drop>(dropCount);
+			return;
+		}
+		
+		while (mBoundDrops.size() > dropCount) {
+			releaseDrop(mBoundDrops.get(mBoundDrops.size() - 1));
+		}
+		for (Drop drop : mDropPool.resize(dropCount)) {
+			removeComponents(drop);
+		}
+	}
+	
+	/**
+	 * Removes every component of a drop that is being freed.
+	 * 
+	 * @param drop - the drop being freed.
+	 */
+	private void removeComponents(Drop drop) {
+		for (Map<Drop, ? extends PixelatedComponent> components
+				: mComponents.values()) {
+			components.remove(drop);
+		}
 	}
 	
 	/**
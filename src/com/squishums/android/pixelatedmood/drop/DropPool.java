@@ -8,24 +8,26 @@ import com.squishums.android.pixelatedmood.util.ObjectPool;
  */
 public class DropPool extends ObjectPool<Drop> {
 	
-	/**
-	 * Creates a drop pool with the default size.
-	 */
-	public DropPool() {
-		super();
-	}
+	// The manager the pooled drops belong to.
+	private final DropManager mDropManager;
+	
 	
 	/**
 	 * Creates a drop pool with a custom size.
 	 * 
+	 * @param dropManager - the manager the drops belong to.
 	 * @param size - the size of the drop pool to create.
 	 */
-	public DropPool(int size) {
-		super(size);
+	public DropPool(DropManager dropManager, int size) {
+		// The drops can only be created once the manager is known, so start
+		// empty and fill the pool afterwards.
+		super(0);
+		mDropManager = dropManager;
+		setSize(size);
 	}
 	
 	@Override
 	protected Drop createObject() {
-		return new Drop(); 
+		return new Drop(mDropManager); 
 	}
 }
@@ -0,0 +1,315 @@
+package com.squishums.android.pixelatedmood.preferences;
+
+/*
+ * Layout of the compiled drop presets (assets/presets.bin), as written by
+ * tools/PresetCompiler.java. Every value is big-endian. Strings are a short
+ * byte length followed by that many UTF-8 bytes. Booleans are a single byte.
+ *
+ *   int    magic         <!-- 'PMPS' -->
+ *   short  version       <!-- FORMAT_VERSION -->
+ *   short  presetCount
+ *   int[presetCount] offsets  <!-- Of each preset, from the start -->
+ *
+ *   Then, for each preset:
+ *   string name
+ *   byte   sections      <!-- SECTION_* flags of the packages present -->
+ *
+ *   DropPrefs     int count, int width, int height, float spawnRate,
+ *                 bool recycle
+ *   PhysicsPrefs  float veloDampenFactor
+ *   WindPrefs     float angle, float force, float forceVar
+ *   GravityPrefs  float force, bool useZ
+ *   PulsarPrefs   float force, float falloffExponent, float minDistance
+ *   RenderPrefs   byte bitmapCount, string[bitmapCount] bitmaps,
+ *                 byte colorCount, int[colorCount] colors,
+ *                 bool trails, int trailDecay, int layerScale,
+ *                 byte layerFormat  <!-- 0 ARGB_8888, 1 RGB_565,
+ *                                          2 ARGB_4444, 3 ALPHA_8 -->
+ *                 float pointSize, bool bulkDraw, bool dirtyRects,
+ *                 bool raster
+ *
+ *   Only the packages flagged in sections are written, in the order above.
+ *   Defaults for optional attributes are filled in by the compiler, and raster
+ *   is already normalized, so the values map straight onto the constructors.
+ *
+ *   Any change to this layout must bump FORMAT_VERSION, both here and in the
+ *   compiler. A blob of any other version is rejected, and the presets fall
+ *   back to the XML.
+ */
+
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.util.Log;
+
+
+/**
+ * Loader for the compiled drop presets. Reads every preset from a single
+ * ByteBuffer, without any of the string parsing the XML needs. The format is
+ * found in the DropPresetsBinaryParser.java file.
+ */
+public abstract class DropPresetsBinaryParser {
+
+	private static final String LOG_TAG =
+			DropPresetsBinaryParser.class.getName();
+	
+	/** Name of the compiled presets in the assets. **/
+	public static final String ASSET_NAME = "presets.bin";
+	
+	// 'PMPS'
+	private static final int MAGIC = 0x504D5053;
+	private static final int FORMAT_VERSION = 2;
+	// Size of the magic, version and preset count.
+	private static final int HEADER_SIZE = 8;
+	
+	private static final int SECTION_DROP = 1 << 0;
+	private static final int SECTION_PHYSICS = 1 << 1;
+	private static final int SECTION_WIND = 1 << 2;
+	private static final int SECTION_GRAVITY = 1 << 3;
+	private static final int SECTION_PULSAR = 1 << 4;
+	private static final int SECTION_RENDER = 1 << 5;
+	
+	// Layer formats, indexed by their code in the blob.
+	private static final Bitmap.Config[] LAYER_FORMATS = new Bitmap.Config[] {
+		Bitmap.Config.ARGB_8888,
+		Bitmap.Config.RGB_565,
+		Bitmap.Config.ARGB_4444,
+		Bitmap.Config.ALPHA_8
+	};
+	
+	
+	/**
+	 * Check that the buffer holds compiled presets of this version, and return
+	 * how many.
+	 *
+	 * @param data - the compiled presets. Its position isn't changed.
+	 * @return the number of presets, or -1 if the buffer isn't a valid blob of
+	 * 		this version.
+	 */
+	public static int getPresetCount(ByteBuffer data) {
+		ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+		buffer.rewind();
+		
+		try {
+			if (buffer.getInt() != MAGIC) {
+				Log.e(LOG_TAG, "Not a compiled preset file");
+				return -1;
+			}
+			int version = buffer.getShort();
+			if (version != FORMAT_VERSION) {
+				Log.e(LOG_TAG, "Compiled presets are version " + version
+						+ ", expected " + FORMAT_VERSION);
+				return -1;
+			}
+			
+			int count = buffer.getShort();
+			if (buffer.remaining() < 4 * count) {
+				Log.e(LOG_TAG, "Compiled presets are truncated");
+				return -1;
+			}
+			return count;
+		} catch (BufferUnderflowException e) {
+			Log.e(LOG_TAG, "Compiled presets are truncated");
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Read every preset in the buffer.
+	 *
+	 * @param data - the compiled presets. Its position isn't changed.
+	 * @param context - context for getting resources.
+	 * @return the presets, in the order they were compiled, or null if the
+	 * 		buffer isn't a valid blob of this version.
+	 */
+	public static PixelatedPreferences[] parse(ByteBuffer data,
+			Context context) {
+		int count = getPresetCount(data);
+		if (count < 0) {
+			return null;
+		}
+		
+		PixelatedPreferences[] presets = new PixelatedPreferences[count];
+		for (int i = 0; i < count; i++) {
+			presets[i] = parse(data, i, context);
+		}
+		return presets;
+	}
+	
+	/**
+	 * Read a single preset from the buffer. None of the other presets are
+	 * read, and none of their bitmaps are decoded.
+	 *
+	 * @param data - the compiled presets. Its position isn't changed, so one
+	 * 		buffer can be shared by several readers.
+	 * @param index - the index of the preset, in the order they were compiled.
+	 * @param context - context for getting resources.
+	 * @return the preset, or null if it couldn't be read.
+	 */
+	public static PixelatedPreferences parse(ByteBuffer data, int index,
+			Context context) {
+		return parse(data, index, context, null);
+	}
+	
+	/**
+	 * Read a single preset from the buffer, decoding its bitmaps in parallel.
+	 *
+	 * @param data - the compiled presets. Its position isn't changed.
+	 * @param index - the index of the preset, in the order they were compiled.
+	 * @param context - context for getting resources.
+	 * @param decoder - executor to decode the bitmaps on, or null to decode
+	 * 		them on the calling thread.
+	 * @return the preset, or null if it couldn't be read.
+	 */
+	public static PixelatedPreferences parse(ByteBuffer data, int index,
+			Context context, Executor decoder) {
+		int count = getPresetCount(data);
+		if (index < 0 || index >= count) {
+			Log.e(LOG_TAG, "No compiled preset " + index);
+			return null;
+		}
+		
+		ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+		try {
+			buffer.position(buffer.getInt(HEADER_SIZE + 4 * index));
+			return parsePreset(buffer, context, decoder);
+		} catch (BufferUnderflowException e) {
+			Log.e(LOG_TAG, "Compiled presets are truncated");
+		} catch (IllegalArgumentException e) {
+			Log.e(LOG_TAG, "Bad offset for compiled preset " + index);
+		}
+		
+		return null;
+	}
+	
+	private static PixelatedPreferences parsePreset(ByteBuffer buffer,
+			Context context, Executor decoder) {
+		String name = getString(buffer);
+		int sections = buffer.get();
+		
+		PixelatedPreferences.DropPrefs dropPrefs = null;
+		PixelatedPreferences.PhysicsPrefs physicsPrefs = null;
+		PixelatedPreferences.WindPrefs windPrefs = null;
+		PixelatedPreferences.GravityPrefs gravityPrefs = null;
+		PixelatedPreferences.PulsarPrefs pulsarPrefs = null;
+		PixelatedPreferences.RenderPrefs renderPrefs = null;
+		
+		if ((sections & SECTION_DROP) != 0) {
+			dropPrefs = new PixelatedPreferences.DropPrefs(
+					buffer.getInt(),
+					buffer.getInt(),
+					buffer.getInt(),
+					buffer.getFloat(),
+					getBoolean(buffer));
+		}
+		if ((sections & SECTION_PHYSICS) != 0) {
+			physicsPrefs = new PixelatedPreferences.PhysicsPrefs(
+					buffer.getFloat());
+		}
+		if ((sections & SECTION_WIND) != 0) {
+			windPrefs = new PixelatedPreferences.WindPrefs(
+					buffer.getFloat(),
+					buffer.getFloat(),
+					buffer.getFloat());
+		}
+		if ((sections & SECTION_GRAVITY) != 0) {
+			gravityPrefs = new PixelatedPreferences.GravityPrefs(
+					buffer.getFloat(),
+					getBoolean(buffer));
+		}
+		if ((sections & SECTION_PULSAR) != 0) {
+			pulsarPrefs = new PixelatedPreferences.PulsarPrefs(
+					buffer.getFloat(),
+					buffer.getFloat(),
+					buffer.getFloat());
+		}
+		if ((sections & SECTION_RENDER) != 0) {
+			renderPrefs = parseRenderPrefs(buffer, context, decoder);
+		}
+		
+		Log.i(LOG_TAG, "Read compiled preset: " + name);
+		
+		return new PixelatedPreferences(
+				name,
+				dropPrefs,
+				physicsPrefs,
+				windPrefs,
+				gravityPrefs,
+				pulsarPrefs,
+				renderPrefs,
+				new Paint());
+	}
+	
+	private static PixelatedPreferences.RenderPrefs
+			parseRenderPrefs(ByteBuffer buffer, Context context,
+					Executor decoder) {
+		String[] bitmapNames = new String[buffer.get()];
+		for (int i = 0; i < bitmapNames.length; i++) {
+			bitmapNames[i] = getString(buffer);
+		}
+		
+		int[] colors = new int[buffer.get()];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = buffer.getInt();
+		}
+		
+		boolean trails = getBoolean(buffer);
+		int trailDecay = buffer.getInt();
+		int layerScale = buffer.getInt();
+		int layerFormat = buffer.get();
+		float pointSize = buffer.getFloat();
+		boolean bulkDraw = getBoolean(buffer);
+		boolean dirtyRects = getBoolean(buffer);
+		boolean raster = getBoolean(buffer);
+		
+		// Read the whole section before decoding the bitmaps, so a missing
+		// bitmap doesn't leave the buffer part way through the preset.
+		if (layerFormat < 0 || layerFormat >= LAYER_FORMATS.length) {
+			Log.e(LOG_TAG, "Unknown layer format in RenderPrefs");
+			return null;
+		}
+		
+		try {
+			return new PixelatedPreferences.RenderPrefs(
+					DropPresetsXmlParser.decodeAtlas(bitmapNames, context,
+							decoder),
+					colors,
+					trails,
+					trailDecay,
+					layerScale,
+					LAYER_FORMATS[layerFormat],
+					pointSize,
+					bulkDraw,
+					dirtyRects,
+					raster);
+		} catch (Resources.NotFoundException e) {
+			Log.e(LOG_TAG, "Bitmap not found");
+		}
+		
+		return null;
+	}
+	
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static boolean getBoolean(ByteBuffer buffer) {
+		return buffer.get() != 0;
+	}
+}
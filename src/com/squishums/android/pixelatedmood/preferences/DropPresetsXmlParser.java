@@ -9,6 +9,10 @@ package com.squishums.android.pixelatedmood.preferences;
  *     count="_int_"   <!-- Max number of drops on screen at once-->
  *     width="_int_"   <!-- width of the drop image file -->
  *     height="_int_"  <!-- height of the drop image file -->
+ *     spawnRate="_float_"  <!-- Optional. Drops spawned per second. Matched
+ *                                 to how quickly drops die off by default. -->
+ *     recycle="_bool_"  <!-- Optional. Respawns drops leaving the screen
+ *                              in place. For sets with a steady flow. -->
  *     />
  *   
  *   <PhysicsPrefs                 <!-- Optional -->
@@ -29,6 +33,19 @@ package com.squishums.android.pixelatedmood.preferences;
  *     
  *   <RenderPrefs
  *     trails="_bool_"     <!-- Adds trails to drops. See "Ash" preset. -->
+ *     trailDecay="_int_"  <!-- Optional. [0,255]. How quickly trails fade.
+ *                                0 => never. -->
+ *     layerScale="_int_"  <!-- Optional. Draws drops onto a layer at 1/n of
+ *                                the screen resolution. Default 1. -->
+ *     layerFormat="_string_"  <!-- Optional. ARGB_8888 (default) or
+ *                                    RGB_565. Format of the drop layer. -->
+ *     pointSize="_float_" <!-- Optional. Draws sprites that appear this size
+ *                                or smaller as points. Ignored with raster. -->
+ *     bulkDraw="_bool_"   <!-- Optional. Draws each colour in one call. -->
+ *     dirtyRects="_bool_" <!-- Optional. Only redraws changed areas. Ignored
+ *                                with trails or layerScale. -->
+ *     raster="_bool_"     <!-- Optional. Draws drops in software. Ignored
+ *                                with trails, layerScale or dirtyRects. -->
  *     bitmap1="_string_"  <!-- Relative path to drop image.
  *     ...                        Bitmap should be white. Alpha is respected. -->
  *     bitmap10            <!-- [2,10] are optional. -->
@@ -39,6 +56,10 @@ package com.squishums.android.pixelatedmood.preferences;
  *   
  *   It is possible to have all systems active at the same time. Each field is
  *   required, unless otherwise stated.
+ *   
+ *   The presets are normally read from a compiled copy in the assets (see
+ *   DropPresetsBinaryParser). Rerun tools/PresetCompiler.java after changing
+ *   any of the XML files.
  */
 
 
@@ -46,6 +67,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -56,10 +81,10 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffColorFilter;
 import android.util.Log;
 
+import com.squishums.android.pixelatedmood.render.SpriteAtlas;
+
 
 /**
  * Parser for the drop preset XML files. The format and possible options are
@@ -216,6 +241,10 @@ public abstract class DropPresetsXmlParser {
 				PixelatedPreferences.DropPrefs.XML_WIDTH);
 		String height = parser.getAttributeValue(null,
 				PixelatedPreferences.DropPrefs.XML_HEIGHT);
+		String spawnRate = parser.getAttributeValue(null,
+				PixelatedPreferences.DropPrefs.XML_SPAWN_RATE);
+		String recycle = parser.getAttributeValue(null,
+				PixelatedPreferences.DropPrefs.XML_RECYCLE);
 		
 		PixelatedPreferences.DropPrefs dropPrefs = null;
 		try {
@@ -223,7 +252,9 @@ public abstract class DropPresetsXmlParser {
 			dropPrefs = new PixelatedPreferences.DropPrefs(
 					Integer.parseInt(count),
 					Integer.parseInt(width),
-					Integer.parseInt(height));
+					Integer.parseInt(height),
+					(spawnRate != null) ? Float.parseFloat(spawnRate) : 0,
+					Boolean.parseBoolean(recycle));
 		} catch (NumberFormatException e) {
 			Log.e(LOG_TAG, "Formatting error in DropPrefs");
 		}
@@ -324,7 +355,6 @@ public abstract class DropPresetsXmlParser {
 	
 	private static PixelatedPreferences.RenderPrefs
 			parseRenderPrefs(XmlPullParser parser, Context context) {
-		Resources resources = context.getResources();
 		PixelatedPreferences.RenderPrefs renderPrefs = null;
 		
 		int bitmapMax =
@@ -350,41 +380,162 @@ public abstract class DropPresetsXmlParser {
 		}
 		
 		try {
-			Bitmap[] bitmaps = new Bitmap[bitmapList.size()];
-			for (int i = 0; i < bitmapList.size(); i++) {
-				int id = resources.getIdentifier(
-						bitmapList.get(i),
-						null,
-						context.getPackageName());
-				bitmaps[i] = BitmapFactory.decodeResource(
-						resources, id);
-				if (bitmaps[i] == null) {
-					throw new Resources.NotFoundException();
-				}
-			}
-		
-			Paint[] paints = new Paint[colorList.size()];
+			int[] colors = new int[colorList.size()];
 			for (int i = 0; i < colorList.size(); i++) {
-				int color = (int) Long.parseLong(colorList.get(i), 16);
-				paints[i] = new Paint();
-				paints[i].setColorFilter(
-						new PorterDuffColorFilter(color,
-								PorterDuff.Mode.MULTIPLY));
+				colors[i] = (int) Long.parseLong(colorList.get(i), 16);
 			}
 			
 			boolean trails = Boolean.parseBoolean(parser.getAttributeValue(null,
 					PixelatedPreferences.RenderPrefs.XML_TRAILS));
+			String trailDecay = parser.getAttributeValue(null,
+					PixelatedPreferences.RenderPrefs.XML_TRAIL_DECAY);
+			String layerScaleValue = parser.getAttributeValue(null,
+					PixelatedPreferences.RenderPrefs.XML_LAYER_SCALE);
+			int layerScale = (layerScaleValue != null)
+					? Math.max(1, Integer.parseInt(layerScaleValue)) : 1;
+			String layerFormatValue = parser.getAttributeValue(null,
+					PixelatedPreferences.RenderPrefs.XML_LAYER_FORMAT);
+			Bitmap.Config layerFormat = (layerFormatValue != null)
+					? Bitmap.Config.valueOf(layerFormatValue)
+					: Bitmap.Config.ARGB_8888;
+			String pointSize = parser.getAttributeValue(null,
+					PixelatedPreferences.RenderPrefs.XML_POINT_SIZE);
+			boolean bulkDraw = Boolean.parseBoolean(parser.getAttributeValue(
+					null, PixelatedPreferences.RenderPrefs.XML_BULK_DRAW));
+			boolean dirtyRects = Boolean.parseBoolean(parser.getAttributeValue(
+					null, PixelatedPreferences.RenderPrefs.XML_DIRTY_RECTS));
+			boolean raster = Boolean.parseBoolean(parser.getAttributeValue(
+					null, PixelatedPreferences.RenderPrefs.XML_RASTER))
+					&& !trails && !dirtyRects && layerScale == 1;
 			
 			renderPrefs = new PixelatedPreferences.RenderPrefs(
-							bitmaps,
-							paints,
-							trails);
+							decodeAtlas(bitmapList.toArray(
+									new String[bitmapList.size()]), context),
+							colors,
+							trails,
+							(trailDecay != null)
+									? Integer.parseInt(trailDecay) : 0,
+							layerScale,
+							layerFormat,
+							(pointSize != null)
+									? Float.parseFloat(pointSize) : 0,
+							bulkDraw,
+							dirtyRects,
+							raster);
 		} catch (NumberFormatException e) {
 			Log.e(LOG_TAG, "Formatting error in RenderPrefs");
+		} catch (IllegalArgumentException e) {
+			Log.e(LOG_TAG, "Unknown layer format in RenderPrefs");
 		} catch (Resources.NotFoundException e) {
 			Log.e(LOG_TAG, "Bitmap not found");
 		}
 		
 		return renderPrefs;
 	}
+	
+	/**
+	 * Decode the named drop bitmaps and pack them into a single atlas. Shared
+	 * with the DropPresetsBinaryParser, so both formats load the same sprites.
+	 * 
+	 * @param bitmapNames - resource names of the drop bitmaps, e.g.
+	 * 		"drawable/drop_orb1".
+	 * @param context - context for getting resources.
+	 * @return the atlas of the bitmaps.
+	 * @throws Resources.NotFoundException if a bitmap couldn't be decoded.
+	 */
+	static SpriteAtlas decodeAtlas(String[] bitmapNames, Context context)
+			throws Resources.NotFoundException {
+		Resources resources = context.getResources();
+		Bitmap[] bitmaps = new Bitmap[bitmapNames.length];
+		for (int i = 0; i < bitmapNames.length; i++) {
+			bitmaps[i] = decodeBitmap(resources, bitmapNames[i],
+					context.getPackageName());
+			if (bitmaps[i] == null) {
+				for (int j = 0; j < i; j++) {
+					bitmaps[j].recycle();
+				}
+				throw new Resources.NotFoundException();
+			}
+		}
+		
+		// Pack the drop bitmaps into a single atlas. This recycles the
+		// individual bitmaps.
+		return SpriteAtlas.build(bitmaps);
+	}
+	
+	/**
+	 * Decode the named drop bitmaps in parallel, and pack them into a single
+	 * atlas. The calling thread decodes any bitmap the executor hasn't got to
+	 * yet rather than waiting for it, so this can't stall behind other work
+	 * queued on the executor.
+	 * 
+	 * @param bitmapNames - resource names of the drop bitmaps.
+	 * @param context - context for getting resources.
+	 * @param decoder - the executor to decode on. If null, the bitmaps are
+	 * 		decoded one after another on the calling thread.
+	 * @return the atlas of the bitmaps.
+	 * @throws Resources.NotFoundException if a bitmap couldn't be decoded.
+	 */
+	static SpriteAtlas decodeAtlas(String[] bitmapNames, Context context,
+			Executor decoder) throws Resources.NotFoundException {
+		if (decoder == null || bitmapNames.length < 2) {
+			return decodeAtlas(bitmapNames, context);
+		}
+		
+		final Resources resources = context.getResources();
+		final String packageName = context.getPackageName();
+		List<FutureTask<Bitmap>> tasks =
+				new ArrayList<FutureTask<Bitmap>>(bitmapNames.length);
+		for (final String bitmapName : bitmapNames) {
+			FutureTask<Bitmap> task = new FutureTask<Bitmap>(
+					new Callable<Bitmap>() {
+						
+						@Override
+						public Bitmap call() {
+							return decodeBitmap(resources, bitmapName,
+									packageName);
+						}
+					});
+			tasks.add(task);
+			decoder.execute(task);
+		}
+		
+		Bitmap[] bitmaps = new Bitmap[bitmapNames.length];
+		boolean missing = false;
+		for (int i = 0; i < bitmaps.length; i++) {
+			FutureTask<Bitmap> task = tasks.get(i);
+			// Does nothing if the executor has already started the task.
+			task.run();
+			try {
+				bitmaps[i] = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Log.e(LOG_TAG, "Could not decode " + bitmapNames[i]);
+			}
+			missing |= bitmaps[i] == null;
+		}
+		
+		if (missing) {
+			for (Bitmap bitmap : bitmaps) {
+				if (bitmap != null) {
+					bitmap.recycle();
+				}
+			}
+			throw new Resources.NotFoundException();
+		}
+		
+		return SpriteAtlas.build(bitmaps);
+	}
+	
+	/**
+	 * Decode a single drop bitmap.
+	 * 
+	 * @return the bitmap, or null if it couldn't be decoded.
+	 */
+	private static Bitmap decodeBitmap(Resources resources, String bitmapName,
+			String packageName) {
+		int id = resources.getIdentifier(bitmapName, null, packageName);
+		return BitmapFactory.decodeResource(resources, id);
+	}
 }
\ No newline at end of file
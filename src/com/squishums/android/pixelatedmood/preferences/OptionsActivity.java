@@ -15,6 +15,8 @@ public class OptionsActivity extends PreferenceActivity {
 			"com.squishums.android.pixelatedmood.setId";
 	
 	private ListView mListView;
+	// Previews of the presets, shown beside their names.
+	private PresetThumbnails mThumbnails;
 	
 	
     @Override
@@ -42,8 +44,16 @@ public class OptionsActivity extends PreferenceActivity {
 		
 		mListView = (ListView) this.findViewById(android.R.id.list)
     			.findViewById(android.R.id.list);
-		RadioButtonListAdapter adapter =
+		final RadioButtonListAdapter adapter =
 				new RadioButtonListAdapter(this, typeText, defaultType);
+		mThumbnails = new PresetThumbnails(this, new Runnable() {
+			
+			@Override
+			public void run() {
+				adapter.notifyDataSetChanged();
+			}
+		});
+		adapter.setIconProvider(mThumbnails);
 		mListView.setAdapter(adapter);
 		
 		// Custom set creation isn't implemented yet, so just disable the button.
@@ -72,4 +82,11 @@ public class OptionsActivity extends PreferenceActivity {
     	
     	PixelatedPreferencesManager.setPreferences(this);
     }
+    
+    @Override
+    public void onDestroy() {
+    	super.onDestroy();
+    	
+    	mThumbnails.release();
+    }
 }
\ No newline at end of file
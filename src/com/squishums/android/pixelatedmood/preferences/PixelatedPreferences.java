@@ -5,12 +5,16 @@ package com.squishums.android.pixelatedmood.preferences;
  * component. There are non-fatal issues with the spawning system when both are
  * in use at the same time.
  * 
- * No integrity checks are done. You have been warned.
+ * Integrity checks are done by the PresetValidator when a set is loaded. Sets
+ * that fail them are never used, so the rest of the code assumes that every
+ * set it's given is complete and in range.
  */
 
 import android.graphics.Bitmap;
 import android.graphics.Paint;
 
+import com.squishums.android.pixelatedmood.render.SpriteAtlas;
+
 
 /**
  * Container for the preferences associated with a drop set. 
@@ -28,8 +32,8 @@ public class PixelatedPreferences {
 	public final PulsarPrefs pulsarPrefs;
 	
 	// Required Packages
-	public DropPrefs dropPrefs;
-	public RenderPrefs renderPrefs;
+	public final DropPrefs dropPrefs;
+	public final RenderPrefs renderPrefs;
 	
 
 	protected PixelatedPreferences(
@@ -60,6 +64,8 @@ public class PixelatedPreferences {
 		protected static final String XML_COUNT = "count";
 		protected static final String XML_WIDTH = "width";
 		protected static final String XML_HEIGHT = "height";
+		protected static final String XML_SPAWN_RATE = "spawnRate";
+		protected static final String XML_RECYCLE = "recycle";
 		
 		/** Maximum number of drops on the screen at once. **/
 		public final int count;
@@ -67,15 +73,23 @@ public class PixelatedPreferences {
 		public final int width;
 		/** Height of the drop's bitmap. **/  // Move to render prefs?
 		public final int height;
+		/** Drops spawned per second. 0 => matched to the drop lifetime. **/
+		public final float spawnRate;
+		/** Whether drops leaving the screen are respawned in place. **/
+		public final boolean recycle;
 		
 		
 		protected DropPrefs(
 				int count,
 				int width,
-				int height) {
+				int height,
+				float spawnRate,
+				boolean recycle) {
 			this.count = count;
 			this.width = width;
 			this.height = height;
+			this.spawnRate = spawnRate;
+			this.recycle = recycle;
 		}
 	}
 	
@@ -185,25 +199,72 @@ public class PixelatedPreferences {
 		protected static final String XML_BITMAP = "bitmap";
 		protected static final String XML_COLOR = "color";
 		protected static final String XML_TRAILS = "trails";
+		protected static final String XML_TRAIL_DECAY = "trailDecay";
+		protected static final String XML_LAYER_SCALE = "layerScale";
+		protected static final String XML_LAYER_FORMAT = "layerFormat";
+		protected static final String XML_POINT_SIZE = "pointSize";
+		protected static final String XML_BULK_DRAW = "bulkDraw";
+		protected static final String XML_DIRTY_RECTS = "dirtyRects";
+		protected static final String XML_RASTER = "raster";
 		
-		protected static final int BITMAP_COUNT_MAX = 10;
-		protected static final int COLOR_COUNT_MAX = 10;
+		public static final int BITMAP_COUNT_MAX = 10;
+		public static final int COLOR_COUNT_MAX = 10;
 		
-		/** Array of bitmaps to randomly select from. **/
-		public final Bitmap[] bitmaps;
-		/** Paint filters too apply to the drop bitmaps **/
-		public final Paint[] filters;
+		/** Atlas of drop sprites to randomly select from. **/
+		public final SpriteAtlas atlas;
+		/** Colours to multiply the drop sprites by. **/
+		public final int[] colors;
 		/** Whether trails appear behind the drops. **/
 		public final boolean trails;
+		/** Alpha trails are faded with each frame. 0 => trails never fade. **/
+		public final int trailDecay;
+		/**
+		 * Factor the resolution of the drop layer is reduced by. The drops
+		 * are drawn onto a layer whenever trails are on or this is above 1.
+		 **/
+		public final int layerScale;
+		/** Pixel format of the drop layer. **/
+		public final Bitmap.Config layerFormat;
+		/**
+		 * Sprites that appear no larger than this (see
+		 * SpriteAtlas.getApparentSize()) are drawn as solid points. 0 => off.
+		 **/
+		public final float pointSize;
+		/** Whether to draw each colour of drops in a single call. **/
+		public final boolean bulkDraw;
+		/** Whether to redraw only the parts of the screen that changed. **/
+		public final boolean dirtyRects;
+		/** Whether to draw the drops with the software raster. **/
+		public final boolean raster;
+		/**
+		 * The atlas bitmap pre-multiplied by each of the colours, indexed the
+		 * same as colors. Filled in by the PixelatedPreferencesManager when
+		 * the set is loaded.
+		 **/
+		public Bitmap[] tints;
 		
 		
 		protected RenderPrefs(
-				Bitmap[] bitmaps,
-				Paint[] filters,
-				boolean trails) {
-			this.bitmaps = bitmaps;
-			this.filters = filters;
+				SpriteAtlas atlas,
+				int[] colors,
+				boolean trails,
+				int trailDecay,
+				int layerScale,
+				Bitmap.Config layerFormat,
+				float pointSize,
+				boolean bulkDraw,
+				boolean dirtyRects,
+				boolean raster) {
+			this.atlas = atlas;
+			this.colors = colors;
 			this.trails = trails;
+			this.trailDecay = trailDecay;
+			this.layerScale = layerScale;
+			this.layerFormat = layerFormat;
+			this.pointSize = pointSize;
+			this.bulkDraw = bulkDraw;
+			this.dirtyRects = dirtyRects;
+			this.raster = raster;
 		}
 	}
 }
@@ -1,21 +1,58 @@
 package com.squishums.android.pixelatedmood.preferences;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
 import android.graphics.LinearGradient;
 import android.graphics.Shader;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.squishums.android.pixelatedmood.R;
+import com.squishums.android.pixelatedmood.render.TintedSpriteCache;
 
 
 /**
  * Manager for interactions with the PixelatedPreferences. Provides methods to
  * access the current drop set. To change the current drop set, change the value
  * in the DefaultSharedPreferences.
+ * 
+ * There is one copy of the presets per process, shared by every wallpaper
+ * engine. The PixelatedMood service loads them for its first engine and frees
+ * them after its last. A preset isn't modified once it has been loaded, so
+ * engines may read the current set from any thread. Engines hold the set they
+ * are showing with acquireCurrentPreferences(), so it stays loaded until they
+ * move on to another set.
+ * 
+ * Only the current set is loaded before loadPresets() returns, with its bitmaps
+ * decoded in parallel. The other presets are then loaded in the background, as
+ * far as the cache has room for them, so switching sets is usually instant.
+ * 
+ * In debuggable builds, preset XML pushed to the app's internal files, under
+ * presets/ (e.g. presets/drop_presets_ash.xml), overrides the built in preset
+ * of the same name. Files changed there while the wallpaper runs are reloaded
+ * in the background by a PresetWatcher, and engines switch to the reloaded
+ * preset at the start of their next frame (see getPresetVersion()). The
+ * internal files need no permission, and debuggable builds can be written to
+ * with run-as:
+ * 
+ *   adb push drop_presets_ash.xml /data/local/tmp/
+ *   adb shell run-as com.squishums.android.pixelatedmood \
+ *       cp /data/local/tmp/drop_presets_ash.xml files/presets/
  */
 public abstract class PixelatedPreferencesManager {
 	
@@ -28,73 +65,722 @@ public abstract class PixelatedPreferencesManager {
 	protected static final int PRESET_COUNT = 5;
 	protected static final int CUSTOM_COUNT = 0;
 	
-	private static PixelatedPreferences[] mPresets =
-			new PixelatedPreferences[PRESET_COUNT];
-	// Whether or not the presets have been loaded into memory.
-	private static boolean mValuesLoaded = false;
+	// Names and XML files of the presets, in ID order. The compiled presets
+	// must hold the same sets in the same order.
+	private static final String[] PRESET_NAMES = new String[] {
+		"Snowflake",
+		"Raindrop",
+		"Shape",
+		"Orb",
+		"Ash"
+	};
+	private static final int[] PRESET_XML = new int[] {
+		R.raw.drop_presets_snowflake,
+		R.raw.drop_presets_raindrop,
+		R.raw.drop_presets_shape,
+		R.raw.drop_presets_orb,
+		R.raw.drop_presets_ash
+	};
+	
+	// Memory the loaded presets may use. Room for the largest set (Ash, about
+	// 40 KB with its tints) and a couple of the smaller ones. The current set
+	// is always kept, whatever its size.
+	private static final int PRESET_CACHE_BUDGET = 64 * 1024;
+	
+	// Directory, within the app's internal files, of presets overriding the
+	// built in ones.
+	private static final String PRESET_DIRECTORY = "presets";
+	
+	// Most threads used to load presets.
+	private static final int LOADER_THREADS_MAX = 3;
+	
+	// Presets that have been loaded, most recently used last.
+	private static PresetCache mPresetCache =
+			new PresetCache(PRESET_CACHE_BUDGET);
+	// The compiled presets, or null to parse the XML instead. Also read by the
+	// loader threads.
+	private static volatile ByteBuffer mCompiledPresets;
+	// Threads decoding the bitmaps of the preset being waited on, and loading
+	// the other presets in the background. null while the presets are
+	// unloaded.
+	private static ExecutorService mLoader;
+	// Whether or not the presets are ready to be loaded.
+	private static volatile boolean mValuesLoaded = false;
+	// Colour-multiplied copies of each preset's sprite atlas.
+	private static TintedSpriteCache mTintCache = new TintedSpriteCache();
 	
 	// Current drop set
-	private static PixelatedPreferences mCurrentPrefs;
+	private static volatile PixelatedPreferences mCurrentPrefs;
+	private static int mCurrentIndex = -1;
+	
+	// Hot reloading. The watcher is null unless the presets directory is being
+	// watched.
+	private static volatile PresetWatcher mPresetWatcher;
+	// Application context, for loading presets off the main thread.
+	private static Context mContext;
+	// File names of the presets, indexed the same as PRESET_NAMES.
+	private static String[] mPresetFiles;
+	// Presets replaced by a reload while an engine was still showing them.
+	// They are freed once the engines give them back.
+	private static List<PixelatedPreferences> mReplacedPresets =
+			new ArrayList<PixelatedPreferences>();
+	// Changed whenever the current set is replaced by a reload.
+	private static volatile int mPresetVersion = 0;
 	
 	
 	/**
-	 * Load the drop presets into memory. This should be called before trying
-	 * to access any drop sets' data or set the current drop set.
+	 * Prepare the drop presets, and load the current drop set. This should be
+	 * called before trying to access any drop sets' data or set the current
+	 * drop set. The other presets are loaded the first time they are selected.
 	 *  
 	 * @param context
 	 */
-	public static void loadPresets(Context context) {
-		// Might be worthwhile to parse the data on-demand, as changing the drop
-		// set is done fairly infrequently, so there's no need to keep track of
-		// every set at once.
+	public static synchronized void loadPresets(Context context) {
+		// Free the bitmaps of any previously loaded presets before replacing
+		// them.
+		unloadPresets();
+		
+		// Prefer the compiled presets, which are much quicker to read. The XML
+		// is still the source, and the fallback if the blob is missing or out
+		// of date.
+		long start = System.nanoTime();
+		mCompiledPresets = readCompiledPresets(context);
+		if (mCompiledPresets != null) {
+			Log.i(LOG_TAG, "Read compiled presets in "
+					+ (System.nanoTime() - start) / 1000 + " us");
+		}
+		// DEBUG */ benchmarkParsers(context);
+		
+		mPresetFiles = new String[PRESET_COUNT];
+		for (int i = 0; i < PRESET_COUNT; i++) {
+			mPresetFiles[i] = context.getResources()
+					.getResourceEntryName(PRESET_XML[i]) + ".xml";
+		}
+		startWatching(context);
+		mLoader = createLoader();
+		
+		mValuesLoaded = true;
+		
+		// Everything else waits on the current set, so load it first.
+		start = System.nanoTime();
+		setPreferences(context);
+		Log.i(LOG_TAG, "Current preset ready in "
+				+ (System.nanoTime() - start) / 1000 + " us");
+		
+		prefetchPresets(context);
+	}
+	
+	/**
+	 * Free the bitmaps of every loaded preset, including their tinted
+	 * variants. The presets must be reloaded before they can be used again.
+	 */
+	public static synchronized void unloadPresets() {
+		mValuesLoaded = false;
+		
+		stopWatching();
+		if (mLoader != null) {
+			// Presets still being loaded are thrown away when they finish.
+			mLoader.shutdownNow();
+			mLoader = null;
+		}
+		for (PixelatedPreferences preset : mPresetCache.clear()) {
+			releasePreset(preset);
+		}
+		for (PixelatedPreferences preset : mReplacedPresets) {
+			releasePreset(preset);
+		}
+		mReplacedPresets.clear();
+		mCompiledPresets = null;
+		mCurrentPrefs = null;
+		mCurrentIndex = -1;
+	}
+	
+	/**
+	 * Returns the preset, loading it if it isn't cached. Loading may push the
+	 * least recently used presets out of the cache, other than this one.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @param context
+	 * @return the preset, or null if it isn't valid.
+	 */
+	private static PixelatedPreferences getPreset(int index, Context context) {
+		PixelatedPreferences preset = mPresetCache.get(index);
+		if (preset != null) {
+			return preset;
+		}
+		
+		// The preset is finished before it's cached, and isn't changed after.
+		long start = System.nanoTime();
+		preset = loadPreset(index, context, mLoader);
+		if (preset == null) {
+			return null;
+		}
+		setBackground(index, preset);
+		createTints(preset);
+		mPresetCache.put(index, preset);
+		evictPresets(index);
+		
+		Log.i(LOG_TAG, "Loaded preset " + preset.name + " in "
+				+ (System.nanoTime() - start) / 1000 + " us. "
+				+ mPresetCache.getSummary());
+		
+		return preset;
+	}
+	
+	/**
+	 * Free the least recently used presets until the cache is within its
+	 * budget.
+	 * 
+	 * @param current - index of the preset that must stay loaded.
+	 */
+	private static void evictPresets(int current) {
+		for (PixelatedPreferences evicted : mPresetCache.evict(current)) {
+			Log.i(LOG_TAG, "Unloading preset " + evicted.name);
+			releasePreset(evicted);
+		}
+	}
+	
+	/**
+	 * Load a single preset, from the compiled presets if possible. Either way,
+	 * the preset must pass the PresetValidator checks. This doesn't change any
+	 * shared state, so the loader threads may call it without the lock.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @param context
+	 * @param decoder - executor to decode the bitmaps on, or null to decode
+	 * 		them on the calling thread.
+	 * @return the preset, without tints, or null if it isn't valid.
+	 */
+	private static PixelatedPreferences loadPreset(int index, Context context,
+			ExecutorService decoder) {
+		File override = getOverrideFile(index);
+		if (override != null) {
+			PixelatedPreferences preset =
+					parsePresetFile(index, override, context);
+			if (preset != null) {
+				Log.i(LOG_TAG, "Loaded preset " + preset.name + " from "
+						+ override);
+				return preset;
+			}
+		}
+		
+		ByteBuffer compiledPresets = mCompiledPresets;
+		if (compiledPresets != null) {
+			PixelatedPreferences preset = DropPresetsBinaryParser.parse(
+					compiledPresets, index, context, decoder);
+			if (preset != null && PRESET_NAMES[index].equals(preset.name)
+					&& PresetValidator.validate(preset)) {
+				return preset;
+			}
+			
+			Log.e(LOG_TAG, "Compiled preset " + index
+					+ " doesn't match the preset list or isn't valid");
+			discardPreset(preset);
+		}
 		
-		// Snow
 		InputStream is = context.getResources()
-				.openRawResource(R.raw.drop_presets_snowflake);
-		mPresets[0] = DropPresetsXmlParser.parse(is, "Snowflake", context);
+				.openRawResource(PRESET_XML[index]);
+		PixelatedPreferences preset =
+				DropPresetsXmlParser.parse(is, PRESET_NAMES[index], context);
+		if (!PresetValidator.validate(preset)) {
+			Log.e(LOG_TAG, "Preset " + preset.name + " isn't valid");
+			discardPreset(preset);
+			return null;
+		}
+		
+		return preset;
+	}
+	
+	/**
+	 * Parse and validate a preset from a file. This doesn't touch any shared
+	 * state, so it may be called off the main thread without the lock.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @param file - the preset XML.
+	 * @param context
+	 * @return the preset, without tints, or null if it isn't valid.
+	 */
+	private static PixelatedPreferences parsePresetFile(int index, File file,
+			Context context) {
+		PixelatedPreferences preset;
+		try {
+			InputStream is = new FileInputStream(file);
+			try {
+				preset = DropPresetsXmlParser.parse(is, PRESET_NAMES[index],
+						context);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Could not read " + file);
+			return null;
+		}
+		
+		if (!PresetValidator.validate(preset)) {
+			Log.e(LOG_TAG, file + " isn't valid");
+			discardPreset(preset);
+			return null;
+		}
+		
+		return preset;
+	}
+	
+	/**
+	 * Reload a preset whose file changed in the presets directory. The file is
+	 * parsed and its bitmaps decoded on the calling thread, without holding the
+	 * lock. The new preset then replaces the loaded one. Engines showing the
+	 * old preset keep it until they switch over at the start of a frame.
+	 * 
+	 * @param watcher - the watcher the change came from.
+	 * @param index - index of the preset, from 0.
+	 * @param file - the changed preset XML.
+	 */
+	static void reloadPreset(PresetWatcher watcher, int index, File file) {
+		long start = System.nanoTime();
+		Context context;
+		synchronized (PixelatedPreferencesManager.class) {
+			if (watcher != mPresetWatcher) {
+				// The presets were unloaded in the meantime.
+				return;
+			}
+			context = mContext;
+		}
+		
+		PixelatedPreferences preset = parsePresetFile(index, file, context);
+		if (preset == null) {
+			Log.e(LOG_TAG, "Keeping the loaded " + PRESET_NAMES[index]);
+			return;
+		}
+		setBackground(index, preset);
+		
+		installPreset(watcher, index, preset);
+		Log.i(LOG_TAG, "Reloaded preset " + preset.name + " in "
+				+ (System.nanoTime() - start) / 1000 + " us");
+	}
+	
+	/**
+	 * Replace a loaded preset with a reloaded one.
+	 * 
+	 * @param watcher - the watcher the reload came from.
+	 * @param index - index of the preset, from 0.
+	 * @param preset - the reloaded preset, without tints.
+	 */
+	private static synchronized void installPreset(PresetWatcher watcher,
+			int index, PixelatedPreferences preset) {
+		if (watcher != mPresetWatcher) {
+			discardPreset(preset);
+			return;
+		}
+		
+		createTints(preset);
+		PixelatedPreferences replaced = mPresetCache.put(index, preset);
+		if (replaced != null) {
+			if (mPresetCache.isPinned(replaced)) {
+				mReplacedPresets.add(replaced);
+			} else {
+				releasePreset(replaced);
+			}
+		}
 		
-		// Rain
-		is = context.getResources()
-				.openRawResource(R.raw.drop_presets_raindrop);
-		mPresets[1] = DropPresetsXmlParser.parse(is, "Raindrop", context);
+		if (index == mCurrentIndex) {
+			mCurrentPrefs = preset;
+			mPresetVersion++;
+		}
+		evictPresets(mCurrentIndex);
+	}
+	
+	/**
+	 * Create the threads presets are loaded on. They run at background
+	 * priority, so they don't hold up drawing.
+	 * 
+	 * @return the executor.
+	 */
+	private static ExecutorService createLoader() {
+		int threadCount = Math.max(1, Math.min(LOADER_THREADS_MAX,
+				Runtime.getRuntime().availableProcessors()));
+		
+		return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					
+					@Override
+					public void run() {
+						Process.setThreadPriority(
+								Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, "PresetLoader");
+			}
+		});
+	}
+	
+	/**
+	 * Load the presets other than the current one in the background, one task
+	 * each, starting with the sets after the current one in the list.
+	 * 
+	 * @param context
+	 */
+	private static void prefetchPresets(Context context) {
+		final ExecutorService loader = mLoader;
+		final Context appContext = context.getApplicationContext();
+		int first = Math.max(mCurrentIndex, 0);
+		for (int i = 1; i < PRESET_COUNT; i++) {
+			final int index = (first + i) % PRESET_COUNT;
+			loader.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					prefetchPreset(loader, index, appContext);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Load a preset on a loader thread, and cache it if there's room. The
+	 * preset is parsed and decoded without the lock.
+	 * 
+	 * @param loader - the loader the task was queued on.
+	 * @param index - index of the preset, from 0.
+	 * @param context
+	 */
+	private static void prefetchPreset(ExecutorService loader, int index,
+			Context context) {
+		synchronized (PixelatedPreferencesManager.class) {
+			if (loader != mLoader || mPresetCache.contains(index)) {
+				return;
+			}
+		}
+		
+		long start = System.nanoTime();
+		// The bitmaps are decoded on this thread. Waiting on other loader
+		// threads from here could tie them all up.
+		PixelatedPreferences preset = loadPreset(index, context, null);
+		if (preset == null) {
+			return;
+		}
+		setBackground(index, preset);
+		
+		synchronized (PixelatedPreferencesManager.class) {
+			if (loader != mLoader || mPresetCache.contains(index)) {
+				// Unloaded, or loaded by someone else, in the meantime.
+				discardPreset(preset);
+				return;
+			}
+			
+			createTints(preset);
+			if (!mPresetCache.fits(preset)) {
+				Log.i(LOG_TAG, "No room to prefetch preset " + preset.name);
+				releasePreset(preset);
+				return;
+			}
+			mPresetCache.put(index, preset);
+			
+			Log.i(LOG_TAG, "Prefetched preset " + preset.name + " in "
+					+ (System.nanoTime() - start) / 1000 + " us. "
+					+ mPresetCache.getSummary());
+		}
+	}
+	
+	/**
+	 * Start watching the presets directory, in debuggable builds only.
+	 * 
+	 * @param context
+	 */
+	private static void startWatching(Context context) {
+		if ((context.getApplicationInfo().flags
+				& ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+			return;
+		}
+		
+		File directory = new File(context.getFilesDir(), PRESET_DIRECTORY);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Log.e(LOG_TAG, "Could not create " + directory
+					+ ", not watching presets");
+			return;
+		}
+		
+		mContext = context.getApplicationContext();
+		mPresetWatcher = new PresetWatcher(directory, PRESET_COUNT);
+		mPresetWatcher.start();
+	}
+	
+	/**
+	 * Stop watching the presets directory. Reloads in progress are dropped.
+	 */
+	private static void stopWatching() {
+		if (mPresetWatcher != null) {
+			mPresetWatcher.stop();
+			mPresetWatcher = null;
+		}
+		mContext = null;
+	}
+	
+	/**
+	 * Returns the file in the presets directory overriding a preset.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @return the file, or null if there isn't one.
+	 */
+	private static File getOverrideFile(int index) {
+		if (mPresetWatcher == null) {
+			return null;
+		}
 		
-		// Shapes
-		is = context.getResources()
-				.openRawResource(R.raw.drop_presets_shape);
-		mPresets[2] = DropPresetsXmlParser.parse(is, "Shape", context);
+		File file = new File(mPresetWatcher.getDirectory(),
+				mPresetFiles[index]);
+		return file.isFile() ? file : null;
+	}
+	
+	/**
+	 * Returns the index of the preset with the given file name.
+	 * 
+	 * @param fileName - name of a file in the presets directory.
+	 * @return the index of the preset, or -1 if the file isn't a preset.
+	 */
+	static synchronized int getPresetIndex(String fileName) {
+		if (mPresetFiles == null) {
+			return -1;
+		}
 		
+		for (int i = 0; i < mPresetFiles.length; i++) {
+			if (mPresetFiles[i].equals(fileName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns a number that changes whenever the current set is replaced by
+	 * a reloaded copy. Engines compare it between frames, and switch to the
+	 * current set when it changes. This is a volatile read, so it's cheap to
+	 * check every frame.
+	 * 
+	 * @return the version of the current set.
+	 */
+	public static int getPresetVersion() {
+		return mPresetVersion;
+	}
+	
+	/**
+	 * Currently, there's no XML syntax for the background, so we have to
+	 * hardcode it here.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @param preset - the newly loaded preset.
+	 */
+	private static void setBackground(int index, PixelatedPreferences preset) {
+		switch (index) {
 		// Bubbles
-		is = context.getResources()
-				.openRawResource(R.raw.drop_presets_orb);
-		mPresets[3] = DropPresetsXmlParser.parse(is, "Orb", context);
-		// Currently, there's no XML syntax to add shaders to the background,
-		// so we have to hardcode that here.
-		mPresets[3].backgroundColor.setShader(new LinearGradient(
-				0, 640,
-				0, 0,
-				0xFF000055, 0xFF000000,
-				Shader.TileMode.CLAMP));
+		case 3: {
+			preset.backgroundColor.setShader(new LinearGradient(
+					0, 640,
+					0, 0,
+					0xFF000055, 0xFF000000,
+					Shader.TileMode.CLAMP));
+			break;
+		}
 		
 		// Ashes
-		is = context.getResources()
-				.openRawResource(R.raw.drop_presets_ash);
-		mPresets[4] = DropPresetsXmlParser.parse(is, "Ash", context);
-		mPresets[4].backgroundColor.setColor(0xFFDDDDDD);
+		case 4: {
+			preset.backgroundColor.setColor(0xFFDDDDDD);
+			break;
+		}
+		}
+	}
+	
+	/**
+	 * Read the compiled presets from the assets. See tools/PresetCompiler.java
+	 * for how to rebuild them after changing the XML.
+	 * 
+	 * @param context
+	 * @return the compiled presets, or null if they couldn't be read or don't
+	 * 		hold the expected number of presets.
+	 */
+	private static ByteBuffer readCompiledPresets(Context context) {
+		byte[] data;
+		try {
+			InputStream is = context.getAssets()
+					.open(DropPresetsBinaryParser.ASSET_NAME);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+						Math.max(is.available(), 1024));
+				byte[] chunk = new byte[4096];
+				int count;
+				while ((count = is.read(chunk)) != -1) {
+					bytes.write(chunk, 0, count);
+				}
+				data = bytes.toByteArray();
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Could not read compiled presets");
+			return null;
+		}
 		
-		mValuesLoaded = true;
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (DropPresetsBinaryParser.getPresetCount(buffer) != PRESET_COUNT) {
+			Log.e(LOG_TAG, "Compiled presets don't match the preset list");
+			return null;
+		}
 		
-		setPreferences(context);
+		return buffer;
+	}
+	
+	/**
+	 * Time loading every preset from the compiled blob and from the XML, and
+	 * log the results. The presets loaded here are thrown away. Both paths
+	 * decode the same bitmaps, so the difference between them is the parsing.
+	 * 
+	 * @param context
+	 */
+	public static synchronized void benchmarkParsers(Context context) {
+		long start = System.nanoTime();
+		ByteBuffer data = readCompiledPresets(context);
+		PixelatedPreferences[] compiled = (data != null)
+				? DropPresetsBinaryParser.parse(data, context) : null;
+		long compiledTime = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		PixelatedPreferences[] xml = new PixelatedPreferences[PRESET_COUNT];
+		for (int i = 0; i < PRESET_COUNT; i++) {
+			InputStream is = context.getResources()
+					.openRawResource(PRESET_XML[i]);
+			xml[i] = DropPresetsXmlParser.parse(is, PRESET_NAMES[i], context);
+		}
+		long xmlTime = System.nanoTime() - start;
+		
+		Log.d(LOG_TAG, "Preset load times: compiled "
+				+ ((compiled != null) ? compiledTime / 1000 + " us" : "failed")
+				+ ", XML " + xmlTime / 1000 + " us");
+		
+		for (int i = 0; i < PRESET_COUNT; i++) {
+			if (compiled != null) {
+				releasePreset(compiled[i]);
+			}
+			releasePreset(xml[i]);
+		}
+	}
+	
+	/**
+	 * Load a preset for use outside of the engines, e.g. for a preview. The
+	 * preset isn't cached or shared, and works whether or not the presets have
+	 * been loaded. The parsing is done without the lock, so this may be called
+	 * off the main thread.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @param context
+	 * @return the preset, which must be freed with releaseDetachedPreset(), or
+	 * 		null if it isn't valid.
+	 */
+	static PixelatedPreferences loadDetachedPreset(int index, Context context) {
+		PixelatedPreferences preset = loadPreset(index, context, null);
+		if (preset == null) {
+			return null;
+		}
+		setBackground(index, preset);
+		
+		synchronized (PixelatedPreferencesManager.class) {
+			createTints(preset);
+		}
+		return preset;
+	}
+	
+	/**
+	 * Free a preset loaded with loadDetachedPreset().
+	 * 
+	 * @param preset - the preset to free.
+	 */
+	static synchronized void releaseDetachedPreset(
+			PixelatedPreferences preset) {
+		releasePreset(preset);
+	}
+	
+	/**
+	 * Open the XML a preset is loaded from: the file in the presets directory
+	 * if there is one, otherwise the built in XML. The compiled presets are
+	 * built from the same XML.
+	 * 
+	 * @param index - index of the preset, from 0.
+	 * @param context
+	 * @return the XML, which the caller must close.
+	 * @throws IOException if the override file couldn't be opened.
+	 */
+	static InputStream openPresetSource(int index, Context context)
+			throws IOException {
+		File override = getOverrideFile(index);
+		if (override != null) {
+			return new FileInputStream(override);
+		}
+		return context.getResources().openRawResource(PRESET_XML[index]);
+	}
+	
+	/**
+	 * Free the atlas of a preset that was loaded but never tinted or cached.
+	 * Unlike releasePreset(), this doesn't touch the tint cache, so it's safe
+	 * without the lock.
+	 * 
+	 * @param preset - the preset to free. May be null.
+	 */
+	private static void discardPreset(PixelatedPreferences preset) {
+		if (preset != null && preset.renderPrefs != null) {
+			preset.renderPrefs.atlas.recycle();
+		}
+	}
+	
+	/**
+	 * Free the bitmaps of a single preset, including its tinted variants.
+	 * 
+	 * @param preset - the preset to free. May be null.
+	 */
+	private static void releasePreset(PixelatedPreferences preset) {
+		if (preset != null && preset.renderPrefs != null) {
+			Bitmap atlas = preset.renderPrefs.atlas.getBitmap();
+			if (atlas != null) {
+				mTintCache.evict(atlas);
+			}
+			preset.renderPrefs.atlas.recycle();
+			preset.renderPrefs.tints = null;
+		}
+	}
+	
+	/**
+	 * Tint the preset's sprite atlas with each of its colours, so that the
+	 * drops can be drawn without a colour filter.
+	 * 
+	 * @param preset - the preset to create the tinted atlases for.
+	 */
+	private static void createTints(PixelatedPreferences preset) {
+		PixelatedPreferences.RenderPrefs renderPrefs = preset.renderPrefs;
+		if (renderPrefs == null) {
+			return;
+		}
+		
+		Bitmap atlas = renderPrefs.atlas.getBitmap();
+		Bitmap[] tints = new Bitmap[renderPrefs.colors.length];
+		if (atlas != null) {
+			for (int i = 0; i < tints.length; i++) {
+				tints[i] = mTintCache.getTinted(atlas, renderPrefs.colors[i]);
+			}
+		}
+		renderPrefs.tints = tints;
 	}
 	
 	/**
 	 * Update the current drop set to match the one stored in SharedPreferences.
-	 * To change the drop set, change that number and call this method. If the
-	 * presets haven't been loaded, this function returns null.
+	 * To change the drop set, change that number and call this method. The set
+	 * is loaded if it isn't already. If the presets haven't been prepared, this
+	 * function returns null.
 	 * 
 	 * @param context
 	 * @return the new current drop set, or null if presets haven't been loaded.
 	 */
-	public static PixelatedPreferences setPreferences(Context context) {
+	public static synchronized PixelatedPreferences setPreferences(
+			Context context) {
 		// This is really silly. This function should take an optional argument
 		// to set the new set number 
 		if (!mValuesLoaded) {
@@ -109,7 +795,22 @@ public abstract class PixelatedPreferencesManager {
 				0);
 		
 		if (setId >= CUSTOM_COUNT) {
-			mCurrentPrefs = mPresets[setId - PRESET_COUNT_START];
+			int index = setId - PRESET_COUNT_START;
+			PixelatedPreferences preset = getPreset(index, context);
+			if (preset == null && mCurrentPrefs == null && index != 0) {
+				// There's nothing else to show, so fall back to the first set.
+				Log.e(LOG_TAG, "Falling back to " + PRESET_NAMES[0]);
+				index = 0;
+				preset = getPreset(index, context);
+			}
+			
+			if (preset != null) {
+				mCurrentIndex = index;
+				mCurrentPrefs = preset;
+			} else {
+				Log.e(LOG_TAG, "Could not load set " + setId
+						+ ", keeping the current set");
+			}
 		} else {
 			Log.e(LOG_TAG, "Could not set preferences to set " + setId
 					+ ". Max " + CUSTOM_COUNT + ".");
@@ -118,6 +819,51 @@ public abstract class PixelatedPreferencesManager {
 		return mCurrentPrefs;
 	}
 	
+	/**
+	 * Returns the current drop set, and keeps it loaded until it's given back
+	 * with releasePreferences(), even if another set is selected meanwhile.
+	 * Each call must be matched by a call to releasePreferences().
+	 * 
+	 * @return the current drop set, or null if the presets haven't been loaded.
+	 */
+	public static synchronized PixelatedPreferences
+			acquireCurrentPreferences() {
+		if (mCurrentPrefs == null) {
+			Log.d(LOG_TAG, "Load presets before attempting to access data");
+			return null;
+		}
+		
+		mPresetCache.pin(mCurrentPrefs);
+		return mCurrentPrefs;
+	}
+	
+	/**
+	 * Give back a drop set taken with acquireCurrentPreferences(). It may be
+	 * freed from then on, unless it's the current set.
+	 * 
+	 * @param prefs - the drop set to give back.
+	 */
+	public static synchronized void releasePreferences(
+			PixelatedPreferences prefs) {
+		mPresetCache.unpin(prefs);
+		if (!mPresetCache.isPinned(prefs) && mReplacedPresets.remove(prefs)) {
+			releasePreset(prefs);
+		}
+		if (mValuesLoaded) {
+			evictPresets(mCurrentIndex);
+		}
+	}
+	
+	/**
+	 * Returns a one line summary of the loaded presets and the cache hits and
+	 * misses, for logging.
+	 * 
+	 * @return the summary.
+	 */
+	public static synchronized String getCacheSummary() {
+		return mPresetCache.getSummary();
+	}
+	
 	/**
 	 * Returns the current drop set, or null if the presets haven't been loaded.
 	 * @return
@@ -0,0 +1,243 @@
+package com.squishums.android.pixelatedmood.preferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+
+/**
+ * Least recently used cache of loaded presets, bounded by the memory their
+ * bitmaps use. A preset's size is its sprite atlas plus the tinted copies of
+ * it, which is almost all of the memory a loaded preset holds.
+ *
+ * The cache doesn't free anything itself. Presets pushed out of the budget are
+ * handed back by evict(), so that the owner can free their bitmaps. Presets
+ * that are pinned, e.g. because an engine is showing them, are never evicted.
+ */
+class PresetCache {
+
+	// Loaded presets, keyed by index, least recently used first.
+	private final LinkedHashMap<Integer, PixelatedPreferences> mEntries =
+			new LinkedHashMap<Integer, PixelatedPreferences>(8, 0.75f, true);
+	// Size of each loaded preset, in bytes.
+	private final Map<Integer, Integer> mSizes =
+			new HashMap<Integer, Integer>();
+	// Number of pins held on each pinned preset.
+	private final Map<PixelatedPreferences, Integer> mPins =
+			new HashMap<PixelatedPreferences, Integer>();
+	private final int mByteBudget;
+	private int mByteCount = 0;
+	
+	private int mHitCount = 0;
+	private int mMissCount = 0;
+	private int mEvictionCount = 0;
+	
+	
+	/**
+	 * @param byteBudget - the memory the cached presets may use, in bytes.
+	 * 		The pinned preset is kept even if it's larger on its own.
+	 */
+	PresetCache(int byteBudget) {
+		mByteBudget = byteBudget;
+	}
+	
+	/**
+	 * Returns the preset, and marks it as the most recently used.
+	 *
+	 * @param index - index of the preset.
+	 * @return the preset, or null if it isn't loaded.
+	 */
+	PixelatedPreferences get(int index) {
+		PixelatedPreferences preset = mEntries.get(index);
+		if (preset != null) {
+			mHitCount++;
+		} else {
+			mMissCount++;
+		}
+		return preset;
+	}
+	
+	/**
+	 * Returns whether a preset is loaded, without counting it as a use.
+	 *
+	 * @param index - index of the preset.
+	 * @return true if the preset is loaded.
+	 */
+	boolean contains(int index) {
+		return mEntries.containsKey(index);
+	}
+	
+	/**
+	 * Returns whether a preset can be added without going over the budget.
+	 *
+	 * @param preset - a loaded preset, with its tints created.
+	 * @return true if the preset fits within the budget.
+	 */
+	boolean fits(PixelatedPreferences preset) {
+		return mByteCount + getSize(preset) <= mByteBudget;
+	}
+	
+	/**
+	 * Adds a newly loaded preset as the most recently used, replacing any
+	 * preset already loaded at the index.
+	 *
+	 * @param index - index of the preset.
+	 * @param preset - the loaded preset, with its tints created.
+	 * @return the replaced preset, which should be freed once it isn't pinned,
+	 * 		or null if there wasn't one.
+	 */
+	PixelatedPreferences put(int index, PixelatedPreferences preset) {
+		int size = getSize(preset);
+		PixelatedPreferences replaced = mEntries.put(index, preset);
+		Integer oldSize = mSizes.put(index, size);
+		mByteCount += size - ((oldSize != null) ? oldSize : 0);
+		return replaced;
+	}
+	
+	/**
+	 * Keeps a preset from being evicted until a matching call to unpin().
+	 *
+	 * @param preset - a cached preset.
+	 */
+	void pin(PixelatedPreferences preset) {
+		Integer pins = mPins.get(preset);
+		mPins.put(preset, (pins != null) ? pins + 1 : 1);
+	}
+
+	/**
+	 * Releases a pin taken with pin().
+	 *
+	 * @param preset - the pinned preset.
+	 */
+	void unpin(PixelatedPreferences preset) {
+		Integer pins = mPins.get(preset);
+		if (pins == null) {
+			return;
+		}
+
+		if (pins > 1) {
+			mPins.put(preset, pins - 1);
+		} else {
+			mPins.remove(preset);
+		}
+	}
+
+	/**
+	 * Returns whether a preset has been pinned and not unpinned.
+	 *
+	 * @param preset - any preset.
+	 * @return true if the preset is pinned.
+	 */
+	boolean isPinned(PixelatedPreferences preset) {
+		return mPins.containsKey(preset);
+	}
+	
+	/**
+	 * Removes the least recently used presets until the cache is within its
+	 * budget. The current preset and pinned presets are never removed.
+	 *
+	 * @param current - index of the current preset.
+	 * @return the removed presets, whose bitmaps should now be freed.
+	 */
+	List<PixelatedPreferences> evict(int current) {
+		List<PixelatedPreferences> evicted =
+				new ArrayList<PixelatedPreferences>();
+		Iterator<Map.Entry<Integer, PixelatedPreferences>> iterator =
+				mEntries.entrySet().iterator();
+		while (mByteCount > mByteBudget && iterator.hasNext()) {
+			Map.Entry<Integer, PixelatedPreferences> entry = iterator.next();
+			if (entry.getKey() == current
+					|| mPins.containsKey(entry.getValue())) {
+				continue;
+			}
+			
+			iterator.remove();
+			mByteCount -= mSizes.remove(entry.getKey());
+			mEvictionCount++;
+			evicted.add(entry.getValue());
+		}
+		
+		return evicted;
+	}
+	
+	/**
+	 * Removes every preset.
+	 *
+	 * @return the removed presets, whose bitmaps should now be freed.
+	 */
+	List<PixelatedPreferences> clear() {
+		List<PixelatedPreferences> removed =
+				new ArrayList<PixelatedPreferences>(mEntries.values());
+		mEntries.clear();
+		mSizes.clear();
+		mPins.clear();
+		mByteCount = 0;
+		return removed;
+	}
+	
+	/** Returns the number of loaded presets. **/
+	int getEntryCount() {
+		return mEntries.size();
+	}
+	
+	/** Returns the memory used by the loaded presets, in bytes. **/
+	int getByteCount() {
+		return mByteCount;
+	}
+	
+	/** Returns the number of lookups that found the preset loaded. **/
+	int getHitCount() {
+		return mHitCount;
+	}
+	
+	/** Returns the number of lookups that had to load the preset. **/
+	int getMissCount() {
+		return mMissCount;
+	}
+	
+	/** Returns the number of presets removed to stay within the budget. **/
+	int getEvictionCount() {
+		return mEvictionCount;
+	}
+	
+	/**
+	 * Returns a one line summary of the cache, for logging.
+	 *
+	 * @return the summary.
+	 */
+	String getSummary() {
+		return "Preset cache: " + mEntries.size() + " presets, "
+				+ mByteCount + "/" + mByteBudget + " bytes, "
+				+ mHitCount + " hits, " + mMissCount + " misses, "
+				+ mEvictionCount + " evictions";
+	}
+	
+	/**
+	 * Returns the memory used by the preset's atlas and tints.
+	 */
+	private static int getSize(PixelatedPreferences preset) {
+		if (preset.renderPrefs == null) {
+			return 0;
+		}
+		
+		int size = getByteCount(preset.renderPrefs.atlas.getBitmap());
+		if (preset.renderPrefs.tints != null) {
+			for (Bitmap tint : preset.renderPrefs.tints) {
+				size += getByteCount(tint);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Bitmap.getByteCount() isn't available until API 12, so calculate it.
+	 */
+	private static int getByteCount(Bitmap bitmap) {
+		return (bitmap != null) ? bitmap.getRowBytes() * bitmap.getHeight() : 0;
+	}
+}
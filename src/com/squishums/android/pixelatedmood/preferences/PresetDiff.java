@@ -0,0 +1,207 @@
+package com.squishums.android.pixelatedmood.preferences;
+
+import java.util.Arrays;
+
+import android.graphics.Paint;
+
+
+/**
+ * The differences between two drop sets, grouped by what has to be redone to
+ * switch from one to the other. Switching between similar sets (or to the same
+ * set) only needs to update the parts that changed, and can keep the drops on
+ * screen.
+ */
+public class PresetDiff {
+
+	/** The number of drops. The drop pool has to be resized. **/
+	public static final int DROP_COUNT = 1 << 0;
+	/** The size of the drops. The spawn tables depend on it. **/
+	public static final int DROP_SIZE = 1 << 1;
+	/** The spawn rate, or whether drops are recycled. **/
+	public static final int SPAWNING = 1 << 2;
+	/** The sprites or colours. Drops need valid sprite and colour indices. **/
+	public static final int SPRITES = 1 << 3;
+	/** The background. **/
+	public static final int BACKGROUND = 1 << 4;
+	/** The drop layer: trails, decay, scale or format. **/
+	public static final int LAYER = 1 << 5;
+	/** How the drops are drawn: point size, bulk draw, dirty rects, raster. **/
+	public static final int DRAWING = 1 << 6;
+	/** The physics package, including whether there is one. **/
+	public static final int PHYSICS = 1 << 7;
+	/** The wind package, including whether there is one. **/
+	public static final int WIND = 1 << 8;
+	/** The gravity package, including whether there is one. **/
+	public static final int GRAVITY = 1 << 9;
+	/** The pulsar package, including whether there is one. **/
+	public static final int PULSAR = 1 << 10;
+	/** Everything, e.g. when there was no previous set. **/
+	public static final int ALL = (1 << 11) - 1;
+	
+	private static final String[] NAMES = new String[] {
+		"count", "size", "spawning", "sprites", "background", "layer",
+		"drawing", "physics", "wind", "gravity", "pulsar"
+	};
+	
+	private final int mChanges;
+	
+	
+	private PresetDiff(int changes) {
+		mChanges = changes;
+	}
+	
+	/**
+	 * Works out what changes between two drop sets.
+	 *
+	 * @param from - the set being switched from, or null if there is none.
+	 * @param to - the set being switched to.
+	 * @return the differences.
+	 */
+	public static PresetDiff between(PixelatedPreferences from,
+			PixelatedPreferences to) {
+		if (from == null) {
+			return new PresetDiff(ALL);
+		}
+		if (from == to) {
+			return new PresetDiff(0);
+		}
+		
+		int changes = 0;
+		
+		PixelatedPreferences.DropPrefs fromDrop = from.dropPrefs;
+		PixelatedPreferences.DropPrefs toDrop = to.dropPrefs;
+		if (fromDrop.count != toDrop.count) {
+			changes |= DROP_COUNT;
+		}
+		if (fromDrop.width != toDrop.width || fromDrop.height != toDrop.height) {
+			changes |= DROP_SIZE;
+		}
+		if (fromDrop.spawnRate != toDrop.spawnRate
+				|| fromDrop.recycle != toDrop.recycle) {
+			changes |= SPAWNING;
+		}
+		
+		PixelatedPreferences.RenderPrefs fromRender = from.renderPrefs;
+		PixelatedPreferences.RenderPrefs toRender = to.renderPrefs;
+		if (fromRender.atlas != toRender.atlas
+				|| !Arrays.equals(fromRender.colors, toRender.colors)) {
+			changes |= SPRITES;
+		}
+		if (fromRender.trails != toRender.trails
+				|| fromRender.trailDecay != toRender.trailDecay
+				|| fromRender.layerScale != toRender.layerScale
+				|| fromRender.layerFormat != toRender.layerFormat) {
+			changes |= LAYER;
+		}
+		if (fromRender.pointSize != toRender.pointSize
+				|| fromRender.bulkDraw != toRender.bulkDraw
+				|| fromRender.dirtyRects != toRender.dirtyRects
+				|| fromRender.raster != toRender.raster) {
+			changes |= DRAWING;
+		}
+		if (!isSameBackground(from.backgroundColor, to.backgroundColor)) {
+			changes |= BACKGROUND;
+		}
+		
+		if (!isSamePhysics(from.physicsPrefs, to.physicsPrefs)) {
+			changes |= PHYSICS;
+		}
+		if (!isSameWind(from.windPrefs, to.windPrefs)) {
+			changes |= WIND;
+		}
+		if (!isSameGravity(from.gravityPrefs, to.gravityPrefs)) {
+			changes |= GRAVITY;
+		}
+		if (!isSamePulsar(from.pulsarPrefs, to.pulsarPrefs)) {
+			changes |= PULSAR;
+		}
+		
+		return new PresetDiff(changes);
+	}
+	
+	/**
+	 * Returns whether any of the given parts changed.
+	 *
+	 * @param parts - any combination of the flags of this class.
+	 * @return true if at least one of the parts changed.
+	 */
+	public boolean changed(int parts) {
+		return (mChanges & parts) != 0;
+	}
+	
+	/**
+	 * Returns whether nothing changed.
+	 *
+	 * @return true if the sets are equivalent.
+	 */
+	public boolean isEmpty() {
+		return mChanges == 0;
+	}
+	
+	@Override
+	public String toString() {
+		if (mChanges == ALL) {
+			return "everything";
+		}
+		if (mChanges == 0) {
+			return "nothing";
+		}
+		
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < NAMES.length; i++) {
+			if ((mChanges & (1 << i)) != 0) {
+				builder.append((builder.length() > 0) ? ", " : "")
+						.append(NAMES[i]);
+			}
+		}
+		return builder.toString();
+	}
+	
+	/* **********************************************************
+	 * Comparisons
+	 * **********************************************************/
+	
+	private static boolean isSameBackground(Paint from, Paint to) {
+		// Shaders can't be compared, so only the same shader is the same.
+		return from.getColor() == to.getColor()
+				&& from.getShader() == to.getShader();
+	}
+	
+	private static boolean isSamePhysics(
+			PixelatedPreferences.PhysicsPrefs from,
+			PixelatedPreferences.PhysicsPrefs to) {
+		if (from == null || to == null) {
+			return from == to;
+		}
+		return from.velocityDampeningFactor == to.velocityDampeningFactor;
+	}
+	
+	private static boolean isSameWind(PixelatedPreferences.WindPrefs from,
+			PixelatedPreferences.WindPrefs to) {
+		if (from == null || to == null) {
+			return from == to;
+		}
+		return from.angle == to.angle
+				&& from.force == to.force
+				&& from.forceVariance == to.forceVariance;
+	}
+	
+	private static boolean isSameGravity(
+			PixelatedPreferences.GravityPrefs from,
+			PixelatedPreferences.GravityPrefs to) {
+		if (from == null || to == null) {
+			return from == to;
+		}
+		return from.force == to.force && from.useZ == to.useZ;
+	}
+	
+	private static boolean isSamePulsar(PixelatedPreferences.PulsarPrefs from,
+			PixelatedPreferences.PulsarPrefs to) {
+		if (from == null || to == null) {
+			return from == to;
+		}
+		return from.force == to.force
+				&& from.falloffExponent == to.falloffExponent
+				&& from.minDistance == to.minDistance;
+	}
+}
@@ -0,0 +1,352 @@
+package com.squishums.android.pixelatedmood.preferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.util.Log;
+
+import com.squishums.android.pixelatedmood.World;
+import com.squishums.android.pixelatedmood.render.CanvasRenderTarget;
+import com.squishums.android.pixelatedmood.system.ExecutionPlan;
+import com.squishums.android.pixelatedmood.system.SystemManager;
+import com.squishums.android.pixelatedmood.util.RadioButtonListAdapter;
+
+
+/**
+ * Still previews of the presets, shown in the options list. A preview is drawn
+ * by running the preset in a World of its own, without a screen, for a few
+ * frames and drawing the result into a small bitmap.
+ *
+ * Previews are saved in the app's cache directory, named after a hash of the
+ * preset's XML and the installed build, so a preset is only simulated again
+ * when it or the app changes. Loading and drawing happen on a background
+ * thread. getIcon() only returns what's ready, and the listener is told when
+ * another preview becomes ready.
+ */
+public class PresetThumbnails implements RadioButtonListAdapter.IconProvider {
+
+	private static final String LOG_TAG = PresetThumbnails.class.getName();
+	
+	// Size of a thumbnail, in dp.
+	private static final int THUMBNAIL_WIDTH = 40;
+	private static final int THUMBNAIL_HEIGHT = 64;
+	// Screen size the preview is simulated at, the same shape as the
+	// thumbnail. The drops are sized for a phone screen, so they are simulated
+	// at about that size and scaled down when drawn.
+	private static final int PREVIEW_WIDTH = 320;
+	private static final int PREVIEW_HEIGHT = 512;
+	// Frames simulated before the preview is drawn. The first frame warm
+	// starts the drops, and the rest let the spawning settle.
+	private static final int PREVIEW_FRAMES = 30;
+	// Seed of the preview's random numbers, so a preview is drawn the same
+	// every time.
+	private static final long PREVIEW_SEED = 0;
+	// The gravity sensor's reading with the phone held upright.
+	private static final float[] UPRIGHT_GRAVITY = new float[] {0, 9.8f, 0};
+	
+	// Change this whenever previews are drawn differently, so the saved ones
+	// are redrawn.
+	private static final int THUMBNAIL_VERSION = 1;
+	private static final String CACHE_DIRECTORY = "thumbnails";
+	
+	private final Context mContext;
+	private final Runnable mListener;
+	private final int mWidth;
+	private final int mHeight;
+	// Identifies the installed build. The sprites and backgrounds come with
+	// the app rather than the XML, so previews are redrawn whenever it's
+	// updated or reinstalled.
+	private final String mBuild;
+	
+	// Previews that are ready, by preset index. Only used on the main thread.
+	private final Bitmap[] mThumbnails;
+	private final boolean[] mRequested;
+	private boolean mReleased = false;
+	
+	// Loads and draws the previews, one at a time.
+	private final ExecutorService mWorker = Executors.newSingleThreadExecutor();
+	// Posts finished previews back to the main thread.
+	private final Handler mHandler = new Handler();
+	
+	
+	/**
+	 * Must be created on the main thread.
+	 *
+	 * @param context
+	 * @param listener - run on the main thread whenever a preview becomes
+	 * 		ready, e.g. to refresh the list.
+	 */
+	public PresetThumbnails(Context context, Runnable listener) {
+		mContext = context.getApplicationContext();
+		mListener = listener;
+		
+		float density = context.getResources().getDisplayMetrics().density;
+		mWidth = Math.round(THUMBNAIL_WIDTH * density);
+		mHeight = Math.round(THUMBNAIL_HEIGHT * density);
+		mBuild = getBuild(context);
+		
+		mThumbnails = new Bitmap[PixelatedPreferencesManager.PRESET_COUNT];
+		mRequested = new boolean[PixelatedPreferencesManager.PRESET_COUNT];
+	}
+	
+	/**
+	 * Returns the preview of the set at a position in the options list, and
+	 * starts loading it if it isn't ready. This never waits.
+	 *
+	 * @param position - position in the options list.
+	 * @return the preview, or null if it isn't ready or the set has none.
+	 */
+	@Override
+	public Bitmap getIcon(int position) {
+		final int index = position - PixelatedPreferencesManager.CUSTOM_COUNT;
+		if (mReleased || index < 0 || index >= mThumbnails.length) {
+			return null;
+		}
+		
+		if (mThumbnails[index] == null && !mRequested[index]) {
+			mRequested[index] = true;
+			mWorker.execute(new Runnable() {
+			
+				@Override
+				public void run() {
+					final Bitmap thumbnail = loadThumbnail(index);
+					if (thumbnail == null) {
+						return;
+					}
+					
+					mHandler.post(new Runnable() {
+					
+						@Override
+						public void run() {
+							if (mReleased) {
+								thumbnail.recycle();
+								return;
+							}
+							mThumbnails[index] = thumbnail;
+							mListener.run();
+						}
+					});
+				}
+			});
+		}
+		
+		return mThumbnails[index];
+	}
+	
+	/**
+	 * Stop loading previews, and free the ones loaded. Must be called on the
+	 * main thread, once the list is no longer shown.
+	 */
+	public void release() {
+		mReleased = true;
+		mWorker.shutdownNow();
+		for (int i = 0; i < mThumbnails.length; i++) {
+			if (mThumbnails[i] != null) {
+				mThumbnails[i].recycle();
+				mThumbnails[i] = null;
+			}
+		}
+	}
+	
+	/**
+	 * Load a preview from the cache, or draw and save it if it isn't there.
+	 * Runs on the worker thread.
+	 *
+	 * @param index - index of the preset, from 0.
+	 * @return the preview, or null if it couldn't be drawn.
+	 */
+	private Bitmap loadThumbnail(int index) {
+		File file = null;
+		try {
+			file = new File(new File(mContext.getCacheDir(), CACHE_DIRECTORY),
+					index + "-" + getHash(index) + ".png");
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Could not read preset " + index);
+		}
+		
+		if (file != null && file.isFile()) {
+			Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+			if (thumbnail != null) {
+				return thumbnail;
+			}
+			Log.e(LOG_TAG, "Could not decode " + file);
+		}
+		
+		long start = System.nanoTime();
+		Bitmap thumbnail = renderThumbnail(index);
+		if (thumbnail == null) {
+			return null;
+		}
+		Log.i(LOG_TAG, "Drew preview of preset " + index + " in "
+				+ (System.nanoTime() - start) / 1000 + " us");
+		
+		if (file != null) {
+			saveThumbnail(index, thumbnail, file);
+		}
+		return thumbnail;
+	}
+	
+	/**
+	 * Simulate a preset without a screen, and draw it into a thumbnail.
+	 *
+	 * @param index - index of the preset, from 0.
+	 * @return the preview, or null if the preset couldn't be loaded.
+	 */
+	private Bitmap renderThumbnail(int index) {
+		PixelatedPreferences preset =
+				PixelatedPreferencesManager.loadDetachedPreset(index, mContext);
+		if (preset == null) {
+			return null;
+		}
+		
+		try {
+			World world = new World(PREVIEW_SEED);
+			world.setPreferences(preset);
+			SystemManager systemManager = world.getSystemManager();
+			systemManager.setScreenDimensions(PREVIEW_WIDTH, PREVIEW_HEIGHT);
+			systemManager.setGravity(UPRIGHT_GRAVITY);
+			for (int i = 0; i < PREVIEW_FRAMES; i++) {
+				systemManager.update();
+			}
+			
+			// Draw at the reduced resolution by scaling the whole preview.
+			// Layers are skipped, so trails aren't shown.
+			Bitmap thumbnail = Bitmap.createBitmap(mWidth, mHeight,
+					Bitmap.Config.ARGB_8888);
+			Canvas canvas = new Canvas(thumbnail);
+			canvas.scale((float) mWidth / PREVIEW_WIDTH,
+					(float) mHeight / PREVIEW_HEIGHT);
+			CanvasRenderTarget target = new CanvasRenderTarget();
+			target.setCanvas(canvas);
+			if (world.getPlan().drawMode != ExecutionPlan.DRAW_RASTER) {
+				// The raster covers the whole preview, background included.
+				target.clear(systemManager.getBackground());
+			}
+			systemManager.render(target);
+			
+			return thumbnail;
+		} finally {
+			PixelatedPreferencesManager.releaseDetachedPreset(preset);
+		}
+	}
+	
+	/**
+	 * Save a preview to the cache, replacing any older preview of the same
+	 * preset. Failing to save isn't fatal; the preview is just drawn again
+	 * next time.
+	 *
+	 * @param index - index of the preset, from 0.
+	 * @param thumbnail - the preview.
+	 * @param file - the file to save it to.
+	 */
+	private void saveThumbnail(int index, Bitmap thumbnail, File file) {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Log.e(LOG_TAG, "Could not create " + directory);
+			return;
+		}
+		
+		// Write to a temporary file first, so a half written preview is
+		// never read back.
+		File temp = new File(directory, file.getName() + ".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				Log.e(LOG_TAG, "Could not save " + file);
+				temp.delete();
+				return;
+			}
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Could not save " + file);
+			temp.delete();
+			return;
+		}
+		
+		// The older previews of the preset can never be used again.
+		String prefix = index + "-";
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File old : files) {
+				if (old.getName().startsWith(prefix) && !old.equals(file)) {
+					old.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns a hash of everything the preview depends on: the preset's XML,
+	 * the preset's index, the installed build (which has the sprites and
+	 * backgrounds), the thumbnail size and THUMBNAIL_VERSION.
+	 *
+	 * @param index - index of the preset, from 0.
+	 * @return the hash, in hex.
+	 * @throws IOException if the preset's XML couldn't be read.
+	 */
+	private String getHash(int index) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is always available.
+			throw new IllegalStateException(e);
+		}
+		
+		InputStream is = PixelatedPreferencesManager.openPresetSource(index,
+				mContext);
+		try {
+			byte[] chunk = new byte[4096];
+			int count;
+			while ((count = is.read(chunk)) != -1) {
+				digest.update(chunk, 0, count);
+			}
+		} finally {
+			is.close();
+		}
+		digest.update((index + "/" + mBuild + "/" + mWidth + "x" + mHeight
+				+ "/" + THUMBNAIL_VERSION).getBytes());
+		
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * Returns a string identifying the installed build: its version code and
+	 * when it was installed, which changes with every reinstall during
+	 * development too.
+	 *
+	 * @param context
+	 * @return the build, or "" if it couldn't be found.
+	 */
+	private static String getBuild(Context context) {
+		try {
+			PackageInfo info = context.getPackageManager().getPackageInfo(
+					context.getPackageName(), 0);
+			return info.versionCode + "@" + info.lastUpdateTime;
+		} catch (PackageManager.NameNotFoundException e) {
+			Log.e(LOG_TAG, "Could not find the installed build");
+			return "";
+		}
+	}
+}
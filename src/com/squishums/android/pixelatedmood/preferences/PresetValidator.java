@@ -0,0 +1,132 @@
+package com.squishums.android.pixelatedmood.preferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+
+/**
+ * Integrity checks for a loaded drop set. The systems assume that the set is
+ * complete and that its values are in range, e.g. that a pulsar has physics to
+ * push, or that the pulsar's minimum distance isn't 0, so a set is checked
+ * once when it's loaded rather than every time it's used.
+ *
+ * Unknown XML attributes, such as a misspelt bitmap, are caught earlier by
+ * tools/PresetCompiler.java.
+ */
+abstract class PresetValidator {
+
+	private static final String LOG_TAG = PresetValidator.class.getName();
+	
+	
+	/**
+	 * Check a drop set, and log each problem found.
+	 *
+	 * @param prefs - the drop set to check.
+	 * @return true if the set can be used.
+	 */
+	static boolean validate(PixelatedPreferences prefs) {
+		List<String> problems = getProblems(prefs);
+		for (String problem : problems) {
+			Log.e(LOG_TAG, prefs.name + ": " + problem);
+		}
+		
+		if (prefs.windPrefs != null && prefs.gravityPrefs != null) {
+			// Usable, but drops spawn in the wrong place. See the warning in
+			// PixelatedPreferences.java.
+			Log.w(LOG_TAG, prefs.name + ": uses both wind and gravity");
+		}
+		
+		return problems.isEmpty();
+	}
+	
+	/**
+	 * Returns every problem with a drop set.
+	 *
+	 * @param prefs - the drop set to check.
+	 * @return a description of each problem. Empty if the set can be used.
+	 */
+	private static List<String> getProblems(PixelatedPreferences prefs) {
+		List<String> problems = new ArrayList<String>();
+		
+		if (prefs.backgroundColor == null) {
+			problems.add("no background");
+		}
+		
+		// Required packages
+		PixelatedPreferences.DropPrefs dropPrefs = prefs.dropPrefs;
+		if (dropPrefs == null) {
+			problems.add("missing or malformed DropPrefs");
+		} else {
+			if (dropPrefs.count < 0) {
+				problems.add("DropPrefs count is negative");
+			}
+			if (dropPrefs.width <= 0 || dropPrefs.height <= 0) {
+				problems.add("DropPrefs width and height must be positive");
+			}
+			if (dropPrefs.spawnRate < 0) {
+				problems.add("DropPrefs spawnRate is negative");
+			}
+		}
+		
+		PixelatedPreferences.RenderPrefs renderPrefs = prefs.renderPrefs;
+		if (renderPrefs == null) {
+			problems.add("missing or malformed RenderPrefs");
+		} else {
+			if (renderPrefs.atlas == null
+					|| renderPrefs.atlas.getSpriteCount() == 0) {
+				problems.add("RenderPrefs has no bitmaps");
+			}
+			if (renderPrefs.colors == null || renderPrefs.colors.length == 0) {
+				problems.add("RenderPrefs has no colors");
+			}
+			if (renderPrefs.trailDecay < 0 || renderPrefs.trailDecay > 255) {
+				problems.add("RenderPrefs trailDecay must be within [0, 255]");
+			}
+			if (renderPrefs.layerScale < 1) {
+				problems.add("RenderPrefs layerScale must be at least 1");
+			}
+			if (renderPrefs.layerFormat == null) {
+				problems.add("RenderPrefs has no layerFormat");
+			}
+			if (renderPrefs.pointSize < 0) {
+				problems.add("RenderPrefs pointSize is negative");
+			}
+		}
+		
+		// Optional packages
+		PixelatedPreferences.PhysicsPrefs physicsPrefs = prefs.physicsPrefs;
+		if (physicsPrefs != null
+				&& (physicsPrefs.velocityDampeningFactor < 0
+						|| physicsPrefs.velocityDampeningFactor > 1)) {
+			problems.add("PhysicsPrefs veloDampenFactor must be within [0, 1]");
+		}
+		
+		PixelatedPreferences.WindPrefs windPrefs = prefs.windPrefs;
+		if (windPrefs != null) {
+			if (windPrefs.force == 0) {
+				// The variance is applied along the wind's direction.
+				problems.add("WindPrefs force is 0");
+			}
+			if (windPrefs.forceVariance < 0) {
+				problems.add("WindPrefs forceVar is negative");
+			}
+		}
+		
+		PixelatedPreferences.PulsarPrefs pulsarPrefs = prefs.pulsarPrefs;
+		if (pulsarPrefs != null) {
+			if (physicsPrefs == null) {
+				problems.add("PulsarPrefs needs PhysicsPrefs");
+			}
+			if (pulsarPrefs.minDistance <= 0) {
+				problems.add("PulsarPrefs minDistance must be positive");
+			}
+			if (pulsarPrefs.falloffExponent < 0) {
+				problems.add("PulsarPrefs falloffExponent is negative");
+			}
+		}
+		
+		return problems;
+	}
+}
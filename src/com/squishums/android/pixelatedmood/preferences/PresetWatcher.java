@@ -0,0 +1,104 @@
+package com.squishums.android.pixelatedmood.preferences;
+
+import java.io.File;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+
+/**
+ * Watches the local presets directory for changed preset XML, and reloads the
+ * changed presets on a background thread. A file overrides the built in preset
+ * of the same name, e.g. drop_presets_ash.xml, so presets can be tuned with
+ * adb push rather than by rebuilding the APK.
+ *
+ * Only the parsing and bitmap decoding happen here. The reloaded preset is
+ * handed to PixelatedPreferencesManager.reloadPreset(), and each engine picks
+ * it up at the start of its next frame.
+ */
+class PresetWatcher extends FileObserver {
+
+	private static final String LOG_TAG = PresetWatcher.class.getName();
+	// Delay between a file changing and it being reloaded (ms). Editors and
+	// adb may write a file in several steps, which are reloaded as one.
+	private static final int RELOAD_DELAY = 250;
+	
+	private final File mDirectory;
+	private final HandlerThread mThread;
+	private final Handler mHandler;
+	// Pending reload of each preset, so repeated changes can be collapsed.
+	private final Runnable[] mReloads;
+	
+	
+	/**
+	 * @param directory - the directory to watch. It must exist.
+	 * @param presetCount - the number of presets that can be overridden.
+	 */
+	PresetWatcher(File directory, int presetCount) {
+		super(directory.getPath(), CLOSE_WRITE | MOVED_TO);
+		mDirectory = directory;
+		mReloads = new Runnable[presetCount];
+		
+		mThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+	}
+	
+	/**
+	 * Returns the directory being watched.
+	 *
+	 * @return the directory.
+	 */
+	File getDirectory() {
+		return mDirectory;
+	}
+	
+	/**
+	 * Start watching. Changes are reloaded until stop() is called.
+	 */
+	void start() {
+		startWatching();
+		Log.i(LOG_TAG, "Watching " + mDirectory + " for presets");
+	}
+	
+	/**
+	 * Stop watching, and end the background thread. Any reload in progress is
+	 * finished, but isn't used.
+	 */
+	void stop() {
+		stopWatching();
+		mThread.quit();
+	}
+	
+	@Override
+	public void onEvent(int event, String path) {
+		if (path == null) {
+			return;
+		}
+		
+		final int index = PixelatedPreferencesManager.getPresetIndex(path);
+		if (index < 0) {
+			return;
+		}
+		
+		synchronized (mReloads) {
+			if (mReloads[index] == null) {
+				final File file = new File(mDirectory, path);
+				mReloads[index] = new Runnable() {
+				
+					@Override
+					public void run() {
+						PixelatedPreferencesManager.reloadPreset(
+								PresetWatcher.this, index, file);
+					}
+				};
+			}
+			
+			mHandler.removeCallbacks(mReloads[index]);
+			mHandler.postDelayed(mReloads[index], RELOAD_DELAY);
+		}
+	}
+}
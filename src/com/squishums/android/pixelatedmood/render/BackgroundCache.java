@@ -0,0 +1,182 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+
+/**
+ * The background of the current drop set, pre-rendered for the current screen
+ * size. A background with a shader (e.g. the gradient of the "Orb" set) would
+ * otherwise be evaluated for every pixel of the screen every frame.
+ * 
+ * Solid backgrounds aren't cached at all, as filling with a colour is already
+ * as cheap as it gets. Shaded backgrounds are rendered once into a bitmap, and
+ * if every row of that bitmap is a single colour (i.e. a vertical gradient), a
+ * table of row colours is kept as well for the software raster.
+ * 
+ * The cache is invalidated whenever the screen size or background paint
+ * changes, and rebuilt the next time it is used. Until the size is known, the
+ * cache is empty and there is nothing to draw.
+ */
+public class BackgroundCache {
+
+	private Paint mPaint;
+	private int mWidth = 0;
+	private int mHeight = 0;
+	
+	// Whether the cached data matches the paint and size.
+	private boolean mValid = false;
+	private Bitmap mBitmap;
+	private int[] mPixels;
+	private int[] mRowColors;
+	
+	
+	public BackgroundCache() { }
+	
+	/**
+	 * Sets the paint the background is filled with.
+	 * 
+	 * @param paint - the background paint of the current drop set.
+	 */
+	public void setPaint(Paint paint) {
+		mPaint = paint;
+		invalidate();
+	}
+	
+	/**
+	 * Sets the size of the background. This should be called whenever the
+	 * screen orientation or resolution changes.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		invalidate();
+	}
+	
+	/**
+	 * Frees the cached background. It will be rebuilt the next time it's
+	 * needed.
+	 */
+	public void invalidate() {
+		if (mBitmap != null) {
+			mBitmap.recycle();
+		}
+		mBitmap = null;
+		mPixels = null;
+		mRowColors = null;
+		mValid = false;
+	}
+	
+	/**
+	 * Returns whether the background has no area yet, e.g. before the screen
+	 * size is known. An empty background has no bitmap, pixels or row colours.
+	 * 
+	 * @return true if the width or height is 0.
+	 */
+	public boolean isEmpty() {
+		return mWidth <= 0 || mHeight <= 0;
+	}
+	
+	/**
+	 * Returns whether the background is a single colour.
+	 * 
+	 * @return true if the background has no shader.
+	 */
+	public boolean isSolid() {
+		return mPaint.getShader() == null;
+	}
+	
+	/**
+	 * Returns the colour of a solid background.
+	 * 
+	 * @return the background colour.
+	 */
+	public int getColor() {
+		return mPaint.getColor();
+	}
+	
+	/**
+	 * Returns the paint the background is rendered from.
+	 * 
+	 * @return the background paint.
+	 */
+	public Paint getPaint() {
+		return mPaint;
+	}
+	
+	/**
+	 * Returns the rendered background. Only valid for backgrounds that aren't
+	 * solid.
+	 * 
+	 * @return a bitmap the size of the screen, or null if the background is
+	 * 		empty.
+	 */
+	public Bitmap getBitmap() {
+		update();
+		return mBitmap;
+	}
+	
+	/**
+	 * Returns the rendered background as packed ARGB pixels. Only valid for
+	 * backgrounds that aren't solid.
+	 * 
+	 * @return the background pixels, in rows of the screen width, or null if
+	 * 		the background is empty.
+	 */
+	public int[] getPixels() {
+		update();
+		return mPixels;
+	}
+	
+	/**
+	 * Returns the colour of each row of the background, if every row is a
+	 * single colour. Only valid for backgrounds that aren't solid.
+	 * 
+	 * @return the row colours, or null if the background varies within a row
+	 * 		or is empty.
+	 */
+	public int[] getRowColors() {
+		update();
+		return mRowColors;
+	}
+	
+	/**
+	 * Renders the background if the cached copy is out of date.
+	 */
+	private void update() {
+		if (mValid) {
+			return;
+		}
+		if (isEmpty()) {
+			// A bitmap can't be 0 pixels wide or high.
+			mValid = true;
+			return;
+		}
+		
+		mBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+		new Canvas(mBitmap).drawPaint(mPaint);
+		mPixels = new int[mWidth * mHeight];
+		mBitmap.getPixels(mPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+		
+		mRowColors = new int[mHeight];
+		for (int y = 0; y < mHeight && mRowColors != null; y++) {
+			int rowStart = y * mWidth;
+			int color = mPixels[rowStart];
+			for (int x = 1; x < mWidth; x++) {
+				if (mPixels[rowStart + x] != color) {
+					mRowColors = null;
+					break;
+				}
+			}
+			if (mRowColors != null) {
+				mRowColors[y] = color;
+			}
+		}
+		
+		mValid = true;
+	}
+}
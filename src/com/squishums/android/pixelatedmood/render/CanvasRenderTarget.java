@@ -0,0 +1,197 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+
+/**
+ * RenderTarget that draws to an android.graphics.Canvas. The frame canvas
+ * changes every time the surface is locked, so it must be set with
+ * setCanvas() before each frame is drawn to it.
+ * 
+ * The persistent layer is a TrailLayer. Everything drawn to it is marked on
+ * the layer, so that only the changed parts need to be composited.
+ */
+public class CanvasRenderTarget implements RenderTarget {
+
+	// Number of bitmaps to keep shader paints for. Bulk draws are done with one
+	// bitmap per drop colour, so this matches the maximum number of colours.
+	private static final int SHADER_CACHE_SIZE = 10;
+	
+	// The canvas of the current frame.
+	private Canvas mFrameCanvas;
+	// The persistent layer, if any.
+	private TrailLayer mLayer;
+	
+	// Sprites are pre-tinted, so no filtering is needed when drawing.
+	private final Paint mPaint = new Paint();
+	
+	// Paint for drawing points. The colour and size change with every call.
+	private final Paint mPointPaint = new Paint();
+	
+	// Paints sampling from recently bulk drawn bitmaps.
+	private final Bitmap[] mShaderBitmaps = new Bitmap[SHADER_CACHE_SIZE];
+	private final Paint[] mShaderPaints = new Paint[SHADER_CACHE_SIZE];
+	private int mShaderCount = 0;
+	
+	
+	public CanvasRenderTarget() { }
+	
+	/**
+	 * Sets the canvas of the frame being drawn.
+	 * 
+	 * @param canvas - the screen canvas for this frame.
+	 */
+	public void setCanvas(Canvas canvas) {
+		mFrameCanvas = canvas;
+	}
+	
+	@Override
+	public void clear(BackgroundCache background) {
+		if (mLayer != null) {
+			mLayer.clear();
+		} else if (background.isSolid()) {
+			mFrameCanvas.drawColor(background.getColor());
+		} else if (!background.isEmpty()) {
+			mFrameCanvas.drawBitmap(background.getBitmap(), 0, 0, null);
+		}
+	}
+	
+	@Override
+	public void drawSprite(Bitmap bitmap, Rect source, RectF destination) {
+		getCanvas().drawBitmap(bitmap, source, destination, mPaint);
+		if (mLayer != null) {
+			mLayer.mark(destination.left, destination.top,
+					destination.right, destination.bottom);
+		}
+	}
+	
+	@Override
+	public void drawSprites(Bitmap bitmap, float[] vertices, float[] textures,
+			short[] indices, int spriteCount) {
+		getCanvas().drawVertices(Canvas.VertexMode.TRIANGLES,
+				spriteCount * 8, vertices, 0,
+				textures, 0,
+				null, 0,
+				indices, 0, spriteCount * 6,
+				getShaderPaint(bitmap));
+		if (mLayer != null) {
+			// Opposite corners of each quad.
+			for (int i = 0; i < spriteCount * 8; i += 8) {
+				mLayer.mark(vertices[i], vertices[i + 1],
+						vertices[i + 4], vertices[i + 5]);
+			}
+		}
+	}
+	
+	@Override
+	public void drawPoints(float[] points, int pointCount, int color,
+			float size) {
+		mPointPaint.setColor(color);
+		mPointPaint.setStrokeWidth(size);
+		getCanvas().drawPoints(points, 0, pointCount * 2, mPointPaint);
+		if (mLayer != null) {
+			float halfSize = size / 2;
+			for (int i = 0; i < pointCount * 2; i += 2) {
+				mLayer.mark(points[i] - halfSize, points[i + 1] - halfSize,
+						points[i] + halfSize, points[i + 1] + halfSize);
+			}
+		}
+	}
+	
+	@Override
+	public void drawPixels(int[] pixels, int width, int height) {
+		getCanvas().drawBitmap(pixels, 0, width, 0, 0, width, height,
+				false, null);
+		if (mLayer != null) {
+			mLayer.mark(0, 0, width, height);
+		}
+	}
+	
+	@Override
+	public void createLayer(int width, int height,
+			BackgroundCache background, int decay, int scale,
+			Bitmap.Config config) {
+		releaseLayer();
+		
+		mLayer = new TrailLayer(width, height, background, decay, scale,
+				config);
+	}
+	
+	@Override
+	public void releaseLayer() {
+		if (mLayer != null) {
+			mLayer.recycle();
+		}
+		mLayer = null;
+	}
+	
+	@Override
+	public boolean hasLayer() {
+		return mLayer != null;
+	}
+	
+	@Override
+	public void beginLayer() {
+		mLayer.begin();
+	}
+	
+	@Override
+	public DirtyRegion finishLayer() {
+		return mLayer.finish();
+	}
+	
+	@Override
+	public void invalidateLayer() {
+		if (mLayer != null) {
+			mLayer.invalidate();
+		}
+	}
+	
+	@Override
+	public void compositeLayer() {
+		mLayer.composite(mFrameCanvas);
+	}
+	
+	/**
+	 * Returns the canvas that drawing currently goes to.
+	 */
+	private Canvas getCanvas() {
+		return (mLayer != null) ? mLayer.getCanvas() : mFrameCanvas;
+	}
+	
+	/**
+	 * Returns a paint that samples from bitmap, reusing one from a previous
+	 * call if possible.
+	 */
+	private Paint getShaderPaint(Bitmap bitmap) {
+		for (int i = 0; i < mShaderCount; i++) {
+			if (mShaderBitmaps[i] == bitmap) {
+				return mShaderPaints[i];
+			}
+		}
+		
+		if (mShaderCount == SHADER_CACHE_SIZE) {
+			// The drop set has most likely changed, so start over.
+			for (int i = 0; i < SHADER_CACHE_SIZE; i++) {
+				mShaderBitmaps[i] = null;
+				mShaderPaints[i] = null;
+			}
+			mShaderCount = 0;
+		}
+		
+		Paint paint = new Paint();
+		paint.setShader(new BitmapShader(bitmap,
+				Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+		mShaderBitmaps[mShaderCount] = bitmap;
+		mShaderPaints[mShaderCount] = paint;
+		mShaderCount++;
+		
+		return paint;
+	}
+}
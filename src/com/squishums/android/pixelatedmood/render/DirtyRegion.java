@@ -0,0 +1,234 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.Region;
+
+
+/**
+ * Tracks which parts of the screen need to be redrawn between two frames.
+ * 
+ * The screen is divided into square tiles. Every frame, the bounds of each
+ * drawn object are marked, and the tiles marked either this frame or the last
+ * one are dirty: they either hold an object now, or held one that has since
+ * moved away. The dirty tiles are then merged into a small set of rects.
+ * 
+ * When too much of the screen is dirty, tracking individual rects costs more
+ * than it saves, and the region reports that a full redraw is needed instead.
+ */
+public class DirtyRegion {
+
+	// Size of each tile, in pixels.
+	private static final int TILE_SIZE = 16;
+	// Maximum number of rects to produce. Any further dirty tiles are merged
+	// into the last rect.
+	private static final int MAX_RECTS = 32;
+	// Fraction of dirty tiles above which a full redraw is done instead.
+	private static final float FULL_REDRAW_COVERAGE = 0.5f;
+	
+	private int mWidth = 0;
+	private int mHeight = 0;
+	private int mColumns = 0;
+	private int mRows = 0;
+	// Tiles touched this frame and last frame.
+	private boolean[] mCurrent = new boolean[0];
+	private boolean[] mPrevious = new boolean[0];
+	
+	// Whether the next frame must be fully redrawn, regardless of coverage.
+	private boolean mInvalidated = true;
+	// Whether the current frame must be fully redrawn.
+	private boolean mFullRedraw = true;
+	
+	private final Rect[] mRects = new Rect[MAX_RECTS];
+	private int mRectCount = 0;
+	private final Rect mBounds = new Rect();
+	
+	
+	public DirtyRegion() {
+		for (int i = 0; i < MAX_RECTS; i++) {
+			mRects[i] = new Rect();
+		}
+	}
+	
+	/**
+	 * Sets the size of the area being tracked. This forces a full redraw on
+	 * the next frame.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		mRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		mCurrent = new boolean[mColumns * mRows];
+		mPrevious = new boolean[mColumns * mRows];
+		invalidate();
+	}
+	
+	/**
+	 * Forces a full redraw on the next frame. This should be called whenever
+	 * the contents of the screen can no longer be trusted, e.g. after the
+	 * surface is recreated or the drop set changes.
+	 */
+	public void invalidate() {
+		mInvalidated = true;
+	}
+	
+	/**
+	 * Starts a new frame. The tiles marked during the previous frame are
+	 * remembered, so that the area objects moved away from is redrawn.
+	 */
+	public void begin() {
+		boolean[] swap = mPrevious;
+		mPrevious = mCurrent;
+		mCurrent = swap;
+		for (int i = 0; i < mCurrent.length; i++) {
+			mCurrent[i] = false;
+		}
+	}
+	
+	/**
+	 * Marks the area covered by an object drawn this frame. Areas outside of
+	 * the tracked bounds are ignored.
+	 */
+	public void add(float left, float top, float right, float bottom) {
+		int firstColumn = Math.max(0, (int) left / TILE_SIZE);
+		int firstRow = Math.max(0, (int) top / TILE_SIZE);
+		int lastColumn = Math.min(mColumns - 1, (int) (right - 1) / TILE_SIZE);
+		int lastRow = Math.min(mRows - 1, (int) (bottom - 1) / TILE_SIZE);
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			int rowOffset = row * mColumns;
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				mCurrent[rowOffset + column] = true;
+			}
+		}
+	}
+	
+	/**
+	 * Finishes the frame, merging the dirty tiles into rects or deciding on
+	 * a full redraw.
+	 */
+	public void end() {
+		mRectCount = 0;
+		mBounds.setEmpty();
+		mFullRedraw = mInvalidated;
+		mInvalidated = false;
+		if (mFullRedraw) {
+			return;
+		}
+		
+		int dirtyCount = 0;
+		for (int i = 0; i < mCurrent.length; i++) {
+			if (mCurrent[i] || mPrevious[i]) {
+				dirtyCount++;
+			}
+		}
+		if (dirtyCount > FULL_REDRAW_COVERAGE * mCurrent.length) {
+			mFullRedraw = true;
+			return;
+		}
+		
+		// Turn each row into runs of dirty tiles. A run spanning the same
+		// columns as a rect ending on the previous row extends that rect
+		// downwards instead of starting a new one.
+		for (int row = 0; row < mRows; row++) {
+			int rowOffset = row * mColumns;
+			int column = 0;
+			while (column < mColumns) {
+				if (!(mCurrent[rowOffset + column]
+						|| mPrevious[rowOffset + column])) {
+					column++;
+					continue;
+				}
+				
+				int start = column;
+				while (column < mColumns && (mCurrent[rowOffset + column]
+						|| mPrevious[rowOffset + column])) {
+					column++;
+				}
+				addRun(row, start, column);
+			}
+		}
+		
+		for (int i = 0; i < mRectCount; i++) {
+			mBounds.union(mRects[i]);
+		}
+	}
+	
+	/**
+	 * Adds a run of dirty tiles to the rects.
+	 * 
+	 * @param row - the row of the run.
+	 * @param start - the first column of the run.
+	 * @param end - one past the last column of the run.
+	 */
+	private void addRun(int row, int start, int end) {
+		int left = start * TILE_SIZE;
+		int top = row * TILE_SIZE;
+		int right = Math.min(end * TILE_SIZE, mWidth);
+		int bottom = Math.min((row + 1) * TILE_SIZE, mHeight);
+		
+		for (int i = 0; i < mRectCount; i++) {
+			Rect rect = mRects[i];
+			if (rect.bottom == top && rect.left == left && rect.right == right) {
+				rect.bottom = bottom;
+				return;
+			}
+		}
+		
+		if (mRectCount < MAX_RECTS) {
+			mRects[mRectCount].set(left, top, right, bottom);
+			mRectCount++;
+		} else {
+			mRects[MAX_RECTS - 1].union(left, top, right, bottom);
+		}
+	}
+	
+	/**
+	 * Returns whether the whole screen must be redrawn this frame.
+	 * 
+	 * @return true if the region can't be used for a partial redraw.
+	 */
+	public boolean isFullRedraw() {
+		return mFullRedraw;
+	}
+	
+	/**
+	 * Returns whether nothing changed on screen this frame. Only meaningful
+	 * when a full redraw isn't needed.
+	 * 
+	 * @return true if there are no dirty rects.
+	 */
+	public boolean isEmpty() {
+		return mRectCount == 0;
+	}
+	
+	/**
+	 * Returns the bounding box of all dirty rects. The returned rect must not
+	 * be modified.
+	 * 
+	 * @return the bounds of the dirty region.
+	 */
+	public Rect getBounds() {
+		return mBounds;
+	}
+	
+	/**
+	 * Restricts drawing on the canvas to the dirty rects.
+	 * 
+	 * @param canvas - the canvas to clip.
+	 */
+	public void clip(Canvas canvas) {
+		if (mRectCount == 0) {
+			return;
+		}
+		
+		canvas.clipRect(mRects[0]);
+		for (int i = 1; i < mRectCount; i++) {
+			canvas.clipRect(mRects[i], Region.Op.UNION);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+
+/**
+ * RenderTarget that records the stream of draw calls made to it, for
+ * analysing how a frame is drawn. Calls can optionally be passed through to
+ * another target, so a frame can be recorded while still appearing on screen.
+ * 
+ * The stream holds the operation, the bitmap drawn from and the number of
+ * sprites drawn for each call. Recording stops once the stream is full, but
+ * the call statistics keep counting until the next reset().
+ */
+public class RecordingRenderTarget implements RenderTarget {
+
+	/** Operation codes, as stored in the stream. **/
+	public static final int OP_CLEAR = 0;
+	public static final int OP_DRAW_SPRITE = 1;
+	public static final int OP_DRAW_SPRITES = 2;
+	public static final int OP_DRAW_PIXELS = 3;
+	public static final int OP_CREATE_LAYER = 4;
+	public static final int OP_RELEASE_LAYER = 5;
+	public static final int OP_COMPOSITE_LAYER = 6;
+	public static final int OP_BEGIN_LAYER = 7;
+	public static final int OP_FINISH_LAYER = 8;
+	public static final int OP_INVALIDATE_LAYER = 9;
+	public static final int OP_DRAW_POINTS = 10;
+	private static final int OP_COUNT = 11;
+	
+	private static final String[] OP_NAMES = new String[] {
+		"clear", "drawSprite", "drawSprites", "drawPixels",
+		"createLayer", "releaseLayer", "compositeLayer",
+		"beginLayer", "finishLayer", "invalidateLayer", "drawPoints"
+	};
+	
+	// The target to pass calls through to, or null.
+	private final RenderTarget mDelegate;
+	
+	// The recorded stream.
+	private final int[] mOps;
+	private final Bitmap[] mBitmaps;
+	private final int[] mSpriteCounts;
+	private int mLength = 0;
+	
+	// Statistics since the last reset.
+	private final int[] mOpCounts = new int[OP_COUNT];
+	private int mSpriteCount = 0;
+	private int mBitmapChanges = 0;
+	private Bitmap mLastBitmap;
+	
+	private boolean mHasLayer = false;
+	
+	
+	/**
+	 * Creates a recording target.
+	 * 
+	 * @param capacity - the maximum number of calls to record.
+	 * @param delegate - the target to pass calls through to. May be null.
+	 */
+	public RecordingRenderTarget(int capacity, RenderTarget delegate) {
+		mDelegate = delegate;
+		mOps = new int[capacity];
+		mBitmaps = new Bitmap[capacity];
+		mSpriteCounts = new int[capacity];
+	}
+	
+	@Override
+	public void clear(BackgroundCache background) {
+		record(OP_CLEAR, null, 0);
+		if (mDelegate != null) {
+			mDelegate.clear(background);
+		}
+	}
+	
+	@Override
+	public void drawSprite(Bitmap bitmap, Rect source, RectF destination) {
+		record(OP_DRAW_SPRITE, bitmap, 1);
+		if (mDelegate != null) {
+			mDelegate.drawSprite(bitmap, source, destination);
+		}
+	}
+	
+	@Override
+	public void drawSprites(Bitmap bitmap, float[] vertices, float[] textures,
+			short[] indices, int spriteCount) {
+		record(OP_DRAW_SPRITES, bitmap, spriteCount);
+		if (mDelegate != null) {
+			mDelegate.drawSprites(bitmap, vertices, textures, indices,
+					spriteCount);
+		}
+	}
+	
+	@Override
+	public void drawPoints(float[] points, int pointCount, int color,
+			float size) {
+		record(OP_DRAW_POINTS, null, pointCount);
+		if (mDelegate != null) {
+			mDelegate.drawPoints(points, pointCount, color, size);
+		}
+	}
+	
+	@Override
+	public void drawPixels(int[] pixels, int width, int height) {
+		record(OP_DRAW_PIXELS, null, 0);
+		if (mDelegate != null) {
+			mDelegate.drawPixels(pixels, width, height);
+		}
+	}
+	
+	@Override
+	public void createLayer(int width, int height,
+			BackgroundCache background, int decay, int scale,
+			Bitmap.Config config) {
+		record(OP_CREATE_LAYER, null, 0);
+		mHasLayer = true;
+		if (mDelegate != null) {
+			mDelegate.createLayer(width, height, background, decay, scale,
+					config);
+		}
+	}
+	
+	@Override
+	public void releaseLayer() {
+		record(OP_RELEASE_LAYER, null, 0);
+		mHasLayer = false;
+		if (mDelegate != null) {
+			mDelegate.releaseLayer();
+		}
+	}
+	
+	@Override
+	public boolean hasLayer() {
+		return (mDelegate != null) ? mDelegate.hasLayer() : mHasLayer;
+	}
+	
+	@Override
+	public void beginLayer() {
+		record(OP_BEGIN_LAYER, null, 0);
+		if (mDelegate != null) {
+			mDelegate.beginLayer();
+		}
+	}
+	
+	@Override
+	public DirtyRegion finishLayer() {
+		record(OP_FINISH_LAYER, null, 0);
+		// Without a delegate there is no layer to report changes of.
+		return (mDelegate != null) ? mDelegate.finishLayer() : null;
+	}
+	
+	@Override
+	public void invalidateLayer() {
+		record(OP_INVALIDATE_LAYER, null, 0);
+		if (mDelegate != null) {
+			mDelegate.invalidateLayer();
+		}
+	}
+	
+	@Override
+	public void compositeLayer() {
+		record(OP_COMPOSITE_LAYER, null, 0);
+		if (mDelegate != null) {
+			mDelegate.compositeLayer();
+		}
+	}
+	
+	/**
+	 * Clears the recorded stream and statistics.
+	 */
+	public void reset() {
+		for (int i = 0; i < mLength; i++) {
+			mBitmaps[i] = null;
+		}
+		mLength = 0;
+		for (int i = 0; i < OP_COUNT; i++) {
+			mOpCounts[i] = 0;
+		}
+		mSpriteCount = 0;
+		mBitmapChanges = 0;
+		mLastBitmap = null;
+	}
+	
+	/**
+	 * Returns the number of calls recorded in the stream.
+	 * 
+	 * @return the length of the stream.
+	 */
+	public int getLength() {
+		return mLength;
+	}
+	
+	/**
+	 * Returns the operation of a recorded call.
+	 * 
+	 * @param index - the position of the call in the stream.
+	 * @return one of the OP_ constants.
+	 */
+	public int getOp(int index) {
+		return mOps[index];
+	}
+	
+	/**
+	 * Returns the bitmap drawn by a recorded call.
+	 * 
+	 * @param index - the position of the call in the stream.
+	 * @return the bitmap drawn from, or null if the call didn't draw a bitmap.
+	 */
+	public Bitmap getBitmap(int index) {
+		return mBitmaps[index];
+	}
+	
+	/**
+	 * Returns the number of sprites drawn by a recorded call.
+	 * 
+	 * @param index - the position of the call in the stream.
+	 * @return the number of sprites drawn.
+	 */
+	public int getSpriteCount(int index) {
+		return mSpriteCounts[index];
+	}
+	
+	/**
+	 * Returns the number of calls of the given operation since the last reset.
+	 * 
+	 * @param op - one of the OP_ constants.
+	 * @return the number of calls.
+	 */
+	public int getOpCount(int op) {
+		return mOpCounts[op];
+	}
+	
+	/**
+	 * Returns the number of times consecutive sprite draws used different
+	 * bitmaps since the last reset.
+	 * 
+	 * @return the number of bitmap changes.
+	 */
+	public int getBitmapChanges() {
+		return mBitmapChanges;
+	}
+	
+	/**
+	 * Returns a one line summary of the calls made since the last reset. This
+	 * allocates, so avoid calling it every frame.
+	 * 
+	 * @return the summary.
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (int op = 0; op < OP_COUNT; op++) {
+			summary.append(OP_NAMES[op]).append('=')
+					.append(mOpCounts[op]).append(", ");
+		}
+		summary.append("sprites=").append(mSpriteCount);
+		summary.append(", bitmapChanges=").append(mBitmapChanges);
+		
+		return summary.toString();
+	}
+	
+	/**
+	 * Adds a call to the stream and statistics.
+	 */
+	private void record(int op, Bitmap bitmap, int spriteCount) {
+		mOpCounts[op]++;
+		mSpriteCount += spriteCount;
+		if (bitmap != null) {
+			if (bitmap != mLastBitmap) {
+				mBitmapChanges++;
+			}
+			mLastBitmap = bitmap;
+		}
+		
+		if (mLength < mOps.length) {
+			mOps[mLength] = op;
+			mBitmaps[mLength] = bitmap;
+			mSpriteCounts[mLength] = spriteCount;
+			mLength++;
+		}
+	}
+}
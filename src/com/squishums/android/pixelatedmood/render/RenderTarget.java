@@ -0,0 +1,122 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+
+/**
+ * Destination for everything drawn in a frame. The render system only ever
+ * draws through this interface, so the backend can be swapped out, or the draw
+ * calls recorded, without touching the systems.
+ * 
+ * A target may hold a persistent layer. While the layer exists, all drawing
+ * goes to the layer instead of the frame, and the layer keeps its contents
+ * between frames. This is how drop trails are drawn. Each frame drawn to the
+ * layer must be bracketed by beginLayer() and finishLayer().
+ */
+public interface RenderTarget {
+
+	/**
+	 * Fills the frame, or the layer if there is one, with the background.
+	 * 
+	 * @param background - the background to fill with.
+	 */
+	public void clear(BackgroundCache background);
+	
+	/**
+	 * Draws a region of a bitmap.
+	 * 
+	 * @param bitmap - the bitmap to draw from.
+	 * @param source - the region of the bitmap to draw.
+	 * @param destination - where to draw the region.
+	 */
+	public void drawSprite(Bitmap bitmap, Rect source, RectF destination);
+	
+	/**
+	 * Draws many regions of one bitmap at once. Each sprite is a quad of four
+	 * corners, clockwise from the top left, and two triangles of indices.
+	 * 
+	 * @param bitmap - the bitmap to draw from.
+	 * @param vertices - x, y screen coordinates of the quads' corners.
+	 * @param textures - x, y bitmap coordinates of the quads' corners.
+	 * @param indices - six vertex indices per quad.
+	 * @param spriteCount - the number of quads to draw.
+	 */
+	public void drawSprites(Bitmap bitmap, float[] vertices, float[] textures,
+			short[] indices, int spriteCount);
+	
+	/**
+	 * Draws solid square points.
+	 * 
+	 * @param points - x, y coordinates of the points' centres.
+	 * @param pointCount - the number of points to draw.
+	 * @param color - the colour of the points.
+	 * @param size - the side of each point, in pixels.
+	 */
+	public void drawPoints(float[] points, int pointCount, int color,
+			float size);
+	
+	/**
+	 * Copies packed ARGB pixels to the top left corner of the frame (or
+	 * layer). The pixels are treated as opaque.
+	 * 
+	 * @param pixels - the pixels to copy, in rows of width pixels.
+	 * @param width
+	 * @param height
+	 */
+	public void drawPixels(int[] pixels, int width, int height);
+	
+	/**
+	 * Creates the persistent layer, replacing any existing one, and fills it
+	 * with the background.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param background - the background to fill the new layer with.
+	 * @param decay - [0,255]. Alpha the background is drawn over the layer
+	 * 		contents with each frame. 0 => the contents never fade.
+	 * @param scale - >= 1. Factor the layer resolution is reduced by. Drawing
+	 * 		is still done in frame coordinates.
+	 * @param config - pixel format of the layer.
+	 */
+	public void createLayer(int width, int height, BackgroundCache background,
+			int decay, int scale, Bitmap.Config config);
+	
+	/**
+	 * Frees the persistent layer. Drawing goes to the frame afterwards.
+	 */
+	public void releaseLayer();
+	
+	/**
+	 * Returns whether a persistent layer exists.
+	 * 
+	 * @return true if drawing goes to the layer.
+	 */
+	public boolean hasLayer();
+	
+	/**
+	 * Starts drawing a frame to the persistent layer, fading its contents one
+	 * step towards the background.
+	 */
+	public void beginLayer();
+	
+	/**
+	 * Finishes drawing a frame to the persistent layer.
+	 * 
+	 * @return the parts of the layer changed since the last frame.
+	 */
+	public DirtyRegion finishLayer();
+	
+	/**
+	 * Forces the whole persistent layer to be treated as changed on the next
+	 * frame. This should be called whenever the screen contents are lost.
+	 */
+	public void invalidateLayer();
+	
+	/**
+	 * Draws the persistent layer onto the frame, upscaling it if needed. Only
+	 * the parts of the frame within its clip are drawn.
+	 */
+	public void compositeLayer();
+}
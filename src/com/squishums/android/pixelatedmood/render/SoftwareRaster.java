@@ -0,0 +1,190 @@
+package com.squishums.android.pixelatedmood.render;
+
+
+/**
+ * A software framebuffer of packed ARGB pixels. Sprites are composited
+ * directly into the pixel array, alpha blended and multiplied by a colour, the
+ * same as drawing a bitmap through a MULTIPLY colour filter.
+ * 
+ * This class deliberately uses nothing from the Android framework, so it can
+ * be exercised and timed on a desktop JVM. On a device, the finished frame is
+ * pushed to the screen with a single Canvas.drawBitmap(int[], ...) call.
+ * 
+ * None of the drawing methods allocate.
+ */
+public class SoftwareRaster {
+
+	private int mWidth;
+	private int mHeight;
+	private int[] mPixels;
+	
+	
+	/**
+	 * Creates a raster of the given size. All pixels start transparent.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public SoftwareRaster(int width, int height) {
+		setSize(width, height);
+	}
+	
+	/**
+	 * Resizes the raster. The pixel data is only reallocated when it grows,
+	 * and is undefined afterwards.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		if (mPixels == null || mPixels.length < width * height) {
+			mPixels = new int[width * height];
+		}
+	}
+	
+	public int getWidth() {
+		return mWidth;
+	}
+	
+	public int getHeight() {
+		return mHeight;
+	}
+	
+	/**
+	 * Returns the pixel array. Pixel (x, y) is at index y * getWidth() + x.
+	 * The array may be larger than width * height.
+	 * 
+	 * @return the raster's pixels.
+	 */
+	public int[] getPixels() {
+		return mPixels;
+	}
+	
+	/**
+	 * Sets every pixel to the given colour.
+	 * 
+	 * @param color - packed ARGB colour.
+	 */
+	public void clear(int color) {
+		final int[] pixels = mPixels;
+		final int end = mWidth * mHeight;
+		for (int i = 0; i < end; i++) {
+			pixels[i] = color;
+		}
+	}
+	
+	/**
+	 * Fills each row of the raster with its own colour.
+	 * 
+	 * @param rowColors - packed ARGB colour of each row. Must hold at least
+	 * 		getHeight() colours.
+	 */
+	public void clearRows(int[] rowColors) {
+		final int[] pixels = mPixels;
+		for (int y = 0; y < mHeight; y++) {
+			final int color = rowColors[y];
+			final int end = (y + 1) * mWidth;
+			for (int i = y * mWidth; i < end; i++) {
+				pixels[i] = color;
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the contents of the raster.
+	 * 
+	 * @param pixels - packed ARGB pixels, in rows of getWidth() pixels. Must
+	 * 		hold at least getWidth() * getHeight() pixels.
+	 */
+	public void copyFrom(int[] pixels) {
+		System.arraycopy(pixels, 0, mPixels, 0, mWidth * mHeight);
+	}
+	
+	/**
+	 * Composites a region of a sprite onto the raster. Each sprite pixel is
+	 * multiplied by color, then blended over the raster with source-over
+	 * blending. Parts of the sprite outside of the raster are clipped.
+	 * 
+	 * @param src - the sprite pixels, packed ARGB.
+	 * @param srcStride - the number of pixels in a row of src.
+	 * @param srcX - left side of the region of src to draw.
+	 * @param srcY - top side of the region of src to draw.
+	 * @param width - width of the region.
+	 * @param height - height of the region.
+	 * @param dstX - left side of the raster to draw the region to.
+	 * @param dstY - top side of the raster to draw the region to.
+	 * @param color - packed ARGB colour to multiply the sprite by.
+	 */
+	public void blit(int[] src, int srcStride, int srcX, int srcY,
+			int width, int height, int dstX, int dstY, int color) {
+		// Clip against the raster.
+		if (dstX < 0) {
+			width += dstX;
+			srcX -= dstX;
+			dstX = 0;
+		}
+		if (dstY < 0) {
+			height += dstY;
+			srcY -= dstY;
+			dstY = 0;
+		}
+		if (dstX + width > mWidth) {
+			width = mWidth - dstX;
+		}
+		if (dstY + height > mHeight) {
+			height = mHeight - dstY;
+		}
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		
+		final int[] dst = mPixels;
+		final int colorA = color >>> 24;
+		final int colorR = (color >> 16) & 0xFF;
+		final int colorG = (color >> 8) & 0xFF;
+		final int colorB = color & 0xFF;
+		
+		for (int row = 0; row < height; row++) {
+			int srcIndex = (srcY + row) * srcStride + srcX;
+			int dstIndex = (dstY + row) * mWidth + dstX;
+			final int srcEnd = srcIndex + width;
+			
+			for (; srcIndex < srcEnd; srcIndex++, dstIndex++) {
+				final int s = src[srcIndex];
+				final int a = multiply(s >>> 24, colorA);
+				if (a == 0) {
+					continue;
+				}
+				
+				final int r = multiply((s >> 16) & 0xFF, colorR);
+				final int g = multiply((s >> 8) & 0xFF, colorG);
+				final int b = multiply(s & 0xFF, colorB);
+				if (a == 0xFF) {
+					dst[dstIndex] = 0xFF000000 | (r << 16) | (g << 8) | b;
+					continue;
+				}
+				
+				final int d = dst[dstIndex];
+				final int inverse = 0xFF - a;
+				dst[dstIndex] =
+						((a + multiply(d >>> 24, inverse)) << 24)
+						| ((multiply(r, a)
+								+ multiply((d >> 16) & 0xFF, inverse)) << 16)
+						| ((multiply(g, a)
+								+ multiply((d >> 8) & 0xFF, inverse)) << 8)
+						| (multiply(b, a) + multiply(d & 0xFF, inverse));
+			}
+		}
+	}
+	
+	/**
+	 * Multiplies two 8-bit channel values, treating 255 as 1.0. Exact for
+	 * every input, including 255 * x = x.
+	 */
+	private static int multiply(int x, int y) {
+		final int product = x * y + 128;
+		return (product + (product >> 8)) >> 8;
+	}
+}
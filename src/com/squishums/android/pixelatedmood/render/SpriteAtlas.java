@@ -0,0 +1,198 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+
+/**
+ * A single bitmap containing every drop sprite of a drop set, along with the
+ * region each sprite occupies. Drawing all drops from one bitmap keeps the
+ * blits local in memory, and is required for drawing many drops per call.
+ * 
+ * Sprites are packed into rows ("shelves"), tallest first. The drop bitmaps
+ * are small and few in number, so this wastes very little space.
+ */
+public class SpriteAtlas {
+
+	// Empty space left around each sprite so that filtered draws don't bleed
+	// neighbouring sprites into each other.
+	private static final int PADDING = 1;
+	
+	private Bitmap mBitmap;
+	private final Rect[] mRegions;
+	// Copy of the atlas pixels for software rendering. Created on demand.
+	private int[] mPixels;
+	// Apparent size of each sprite. Created on demand.
+	private float[] mApparentSizes;
+	
+	
+	private SpriteAtlas(Bitmap bitmap, Rect[] regions) {
+		mBitmap = bitmap;
+		mRegions = regions;
+	}
+	
+	/**
+	 * Packs the given sprites into a new atlas. The source bitmaps are
+	 * recycled once they have been copied into the atlas, so they must not be
+	 * used afterwards.
+	 * 
+	 * @param sprites - the bitmaps to pack. May be empty, but not null.
+	 * @return the resulting atlas. Sprite i of the atlas is sprites[i].
+	 */
+	public static SpriteAtlas build(Bitmap[] sprites) {
+		Rect[] regions = new Rect[sprites.length];
+		if (sprites.length == 0) {
+			return new SpriteAtlas(null, regions);
+		}
+		
+		// Sort the sprite indices by height, tallest first, to keep the shelves
+		// tight. There are at most a handful of sprites, so insertion sort it.
+		int[] order = new int[sprites.length];
+		for (int i = 0; i < order.length; i++) {
+			int j = i;
+			while (j > 0 && sprites[order[j - 1]].getHeight()
+					< sprites[i].getHeight()) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+		
+		// Aim for a roughly square atlas, but never narrower than the widest
+		// sprite.
+		int area = 0;
+		int maxWidth = 0;
+		for (Bitmap sprite : sprites) {
+			int paddedWidth = sprite.getWidth() + 2 * PADDING;
+			area += paddedWidth * (sprite.getHeight() + 2 * PADDING);
+			maxWidth = Math.max(maxWidth, paddedWidth);
+		}
+		int atlasWidth = Math.max(maxWidth, (int) Math.ceil(Math.sqrt(area)));
+		
+		// Lay out the shelves.
+		int shelfX = 0;
+		int shelfY = 0;
+		int shelfHeight = 0;
+		for (int i : order) {
+			int width = sprites[i].getWidth() + 2 * PADDING;
+			int height = sprites[i].getHeight() + 2 * PADDING;
+			if (shelfX + width > atlasWidth) {
+				shelfY += shelfHeight;
+				shelfX = 0;
+				shelfHeight = 0;
+			}
+			
+			regions[i] = new Rect(
+					shelfX + PADDING,
+					shelfY + PADDING,
+					shelfX + PADDING + sprites[i].getWidth(),
+					shelfY + PADDING + sprites[i].getHeight());
+			shelfX += width;
+			shelfHeight = Math.max(shelfHeight, height);
+		}
+		int atlasHeight = shelfY + shelfHeight;
+		
+		// Copy the sprites into the atlas.
+		Bitmap atlas = Bitmap.createBitmap(
+				atlasWidth, atlasHeight, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(atlas);
+		for (int i = 0; i < sprites.length; i++) {
+			canvas.drawBitmap(sprites[i],
+					regions[i].left, regions[i].top, null);
+			sprites[i].recycle();
+		}
+		
+		return new SpriteAtlas(atlas, regions);
+	}
+	
+	/**
+	 * Returns the bitmap containing all of the sprites.
+	 * 
+	 * @return the atlas bitmap, or null if the atlas is empty.
+	 */
+	public Bitmap getBitmap() {
+		return mBitmap;
+	}
+	
+	/**
+	 * Returns the packed ARGB pixels of the atlas bitmap, copying them out of
+	 * the bitmap on the first call. Rows are getBitmap().getWidth() pixels
+	 * long.
+	 * 
+	 * @return the atlas pixels, or an empty array if the atlas is empty.
+	 */
+	public int[] getPixels() {
+		if (mPixels == null) {
+			if (mBitmap == null) {
+				mPixels = new int[0];
+			} else {
+				int width = mBitmap.getWidth();
+				int height = mBitmap.getHeight();
+				mPixels = new int[width * height];
+				mBitmap.getPixels(mPixels, 0, width, 0, 0, width, height);
+			}
+		}
+		
+		return mPixels;
+	}
+	
+	/**
+	 * Returns the region of the atlas bitmap occupied by the given sprite. The
+	 * returned rect must not be modified.
+	 * 
+	 * @param sprite - the index of the sprite.
+	 * @return the source rect of the sprite.
+	 */
+	public Rect getRegion(int sprite) {
+		return mRegions[sprite];
+	}
+	
+	/**
+	 * Returns the apparent size of a sprite: the side of a solid square
+	 * covering as much as the sprite's visible pixels do. Mostly transparent
+	 * sprites appear much smaller than their bitmaps.
+	 * 
+	 * @param sprite - the index of the sprite.
+	 * @return the apparent size, in pixels.
+	 */
+	public float getApparentSize(int sprite) {
+		if (mApparentSizes == null) {
+			int[] pixels = getPixels();
+			int stride = (mBitmap != null) ? mBitmap.getWidth() : 0;
+			mApparentSizes = new float[mRegions.length];
+			for (int i = 0; i < mRegions.length; i++) {
+				Rect region = mRegions[i];
+				int coverage = 0;
+				for (int y = region.top; y < region.bottom; y++) {
+					for (int x = region.left; x < region.right; x++) {
+						coverage += pixels[y * stride + x] >>> 24;
+					}
+				}
+				mApparentSizes[i] = (float) Math.sqrt(coverage / 255f);
+			}
+		}
+		
+		return mApparentSizes[sprite];
+	}
+	
+	/**
+	 * Returns the number of sprites in the atlas.
+	 * 
+	 * @return the number of sprites.
+	 */
+	public int getSpriteCount() {
+		return mRegions.length;
+	}
+	
+	/**
+	 * Frees the atlas bitmap. The atlas can not be drawn from afterwards.
+	 */
+	public void recycle() {
+		if (mBitmap != null) {
+			mBitmap.recycle();
+			mBitmap = null;
+		}
+		mPixels = null;
+	}
+}
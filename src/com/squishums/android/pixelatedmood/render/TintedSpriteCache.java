@@ -0,0 +1,119 @@
+package com.squishums.android.pixelatedmood.render;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+
+
+/**
+ * Cache of colour-multiplied copies of bitmaps. Applying a colour filter while
+ * drawing costs a multiply for every pixel of every draw, while a drop set only
+ * ever uses a handful of bitmap and colour combinations. Tinting each
+ * combination once up front lets the drops be drawn with a plain Paint.
+ * 
+ * Tinted bitmaps are owned by the cache. They are recycled when their source
+ * bitmap is evicted, so callers must not keep them past that point.
+ */
+public class TintedSpriteCache {
+
+	// Tinted variants, keyed by source bitmap and then by colour.
+	private final Map<Bitmap, Map<Integer, Bitmap>> mVariants =
+			new HashMap<Bitmap, Map<Integer, Bitmap>>();
+	// Total size of all cached bitmaps, in bytes.
+	private int mByteCount = 0;
+	
+	
+	public TintedSpriteCache() { }
+	
+	/**
+	 * Returns a copy of source with color multiplied into every pixel, creating
+	 * it if it isn't cached yet. The result is identical to drawing source
+	 * with a MULTIPLY PorterDuffColorFilter of the same colour.
+	 * 
+	 * @param source - the bitmap to tint.
+	 * @param color - the colour to multiply the bitmap by.
+	 * @return the tinted bitmap.
+	 */
+	public Bitmap getTinted(Bitmap source, int color) {
+		Map<Integer, Bitmap> variants = mVariants.get(source);
+		if (variants == null) {
+			variants = new HashMap<Integer, Bitmap>();
+			mVariants.put(source, variants);
+		}
+		
+		Bitmap tinted = variants.get(color);
+		if (tinted == null) {
+			tinted = tint(source, color);
+			variants.put(color, tinted);
+			mByteCount += getByteCount(tinted);
+		}
+		
+		return tinted;
+	}
+	
+	/**
+	 * Removes and recycles every tinted variant of source. This should be
+	 * called before the source bitmap is freed.
+	 * 
+	 * @param source - the bitmap whose variants are no longer needed.
+	 */
+	public void evict(Bitmap source) {
+		Map<Integer, Bitmap> variants = mVariants.remove(source);
+		if (variants == null) {
+			return;
+		}
+		
+		for (Bitmap tinted : variants.values()) {
+			mByteCount -= getByteCount(tinted);
+			tinted.recycle();
+		}
+	}
+	
+	/**
+	 * Returns the memory used by the cached bitmaps.
+	 * 
+	 * @return the total size of all cached bitmaps, in bytes.
+	 */
+	public int getByteCount() {
+		return mByteCount;
+	}
+	
+	/**
+	 * Returns the number of tinted bitmaps currently held by the cache.
+	 * 
+	 * @return the number of cached bitmaps.
+	 */
+	public int getEntryCount() {
+		int count = 0;
+		for (Map<Integer, Bitmap> variants : mVariants.values()) {
+			count += variants.size();
+		}
+		return count;
+	}
+	
+	/**
+	 * Creates a colour-multiplied copy of source.
+	 */
+	private static Bitmap tint(Bitmap source, int color) {
+		Bitmap tinted = Bitmap.createBitmap(
+				source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+		Paint paint = new Paint();
+		paint.setColorFilter(
+				new PorterDuffColorFilter(color, PorterDuff.Mode.MULTIPLY));
+		new Canvas(tinted).drawBitmap(source, 0, 0, paint);
+		
+		return tinted;
+	}
+	
+	/**
+	 * Bitmap.getByteCount() isn't available until API 12, so calculate it.
+	 */
+	private static int getByteCount(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,265 @@
+package com.squishums.android.pixelatedmood.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+
+/**
+ * Persistent layer that drop trails are drawn onto.
+ *
+ * The layer is divided into square tiles. A tile becomes active when something
+ * is drawn over it, and stays active while its contents fade back into the
+ * background: every frame, the background is drawn over the active tiles at a
+ * low alpha. Once a tile has faded completely it is reset to the background
+ * and goes idle, so the cost of fading depends on how much of the screen holds
+ * trails rather than on the size of the screen.
+ *
+ * The tiles drawn over or faded each frame are collected in a DirtyRegion, so
+ * only the parts of the layer that changed need to be copied to the screen.
+ * Without a decay, trails never fade and only drawn tiles change.
+ * 
+ * The layer can be kept at a fraction of the screen resolution, and in a
+ * 16-bit format, to save memory and fill rate. Its canvas is scaled so that
+ * everything is still drawn, tracked and composited in screen coordinates,
+ * and the layer is upscaled with filtering when composited.
+ */
+public class TrailLayer {
+
+	// Size of each tile, in pixels.
+	private static final int TILE_SIZE = 32;
+	// Fraction of the original intensity left when a tile is reset to the
+	// background. Anything less is lost to rounding anyway.
+	private static final double FADE_CUTOFF = 1.0 / 255;
+	
+	// Screen size and tiling.
+	private final int mWidth;
+	private final int mHeight;
+	private final int mColumns;
+	private final int mRows;
+	
+	private final Bitmap mBitmap;
+	private final Canvas mCanvas;
+	private final BackgroundCache mBackground;
+	// The area of the screen covered by the upscaled layer.
+	private final Rect mScreenRect;
+	// Filters the background when drawn at a reduced scale, and the layer
+	// when upscaled.
+	private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	
+	// Alpha the background is drawn over active tiles with each frame, and
+	// the number of frames until a tile drawn over has fully faded.
+	private final int mDecay;
+	private final int mFadeFrames;
+	// Frames left until each tile has fully faded. 0 for idle tiles.
+	private final int[] mLife;
+	
+	// The parts of the layer changed this frame or the last.
+	private final DirtyRegion mDirtyRegion = new DirtyRegion();
+	
+	private final Paint mFadePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Rect mTileRect = new Rect();
+	
+	
+	/**
+	 * Creates a layer filled with the background.
+	 *
+	 * @param width - width of the screen.
+	 * @param height - height of the screen.
+	 * @param background - the background trails fade into.
+	 * @param decay - [0,255]. Alpha the background is drawn over trails with
+	 * 		each frame. 0 => trails never fade.
+	 * @param scale - >= 1. Factor the layer resolution is reduced by.
+	 * @param config - pixel format of the layer.
+	 */
+	public TrailLayer(int width, int height, BackgroundCache background,
+			int decay, int scale, Bitmap.Config config) {
+		mWidth = width;
+		mHeight = height;
+		mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		mRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		mBackground = background;
+		
+		mDecay = Math.max(0, Math.min(255, decay));
+		mFadeFrames = (mDecay > 0)
+				? (int) Math.ceil(Math.log(FADE_CUTOFF)
+						/ Math.log(1 - mDecay / 255.0))
+				: 0;
+		mLife = new int[mColumns * mRows];
+		
+		scale = Math.max(1, scale);
+		int layerWidth = (width + scale - 1) / scale;
+		int layerHeight = (height + scale - 1) / scale;
+		mBitmap = Bitmap.createBitmap(layerWidth, layerHeight, config);
+		mCanvas = new Canvas(mBitmap);
+		mCanvas.scale(1f / scale, 1f / scale);
+		mScreenRect = new Rect(0, 0, layerWidth * scale, layerHeight * scale);
+		mDirtyRegion.setSize(width, height);
+		clear();
+	}
+	
+	/**
+	 * Returns the canvas drawing to the layer. Anything drawn on it must also
+	 * be passed to mark().
+	 *
+	 * @return the layer canvas.
+	 */
+	public Canvas getCanvas() {
+		return mCanvas;
+	}
+	
+	/**
+	 * Fills the whole layer with the background, removing all trails.
+	 */
+	public void clear() {
+		if (mBackground.isSolid()) {
+			mCanvas.drawColor(mBackground.getColor());
+		} else if (!mBackground.isEmpty()) {
+			mCanvas.drawBitmap(mBackground.getBitmap(), 0, 0, mScalePaint);
+		}
+		for (int i = 0; i < mLife.length; i++) {
+			mLife[i] = 0;
+		}
+		mDirtyRegion.invalidate();
+	}
+	
+	/**
+	 * Starts a new frame, fading the active tiles one step towards the
+	 * background. This must be called before anything is drawn for the frame.
+	 */
+	public void begin() {
+		mDirtyRegion.begin();
+		if (mDecay == 0) {
+			return;
+		}
+		
+		mFadePaint.setAlpha(mDecay);
+		for (int row = 0; row < mRows; row++) {
+			int rowOffset = row * mColumns;
+			int column = 0;
+			while (column < mColumns) {
+				if (mLife[rowOffset + column] == 0) {
+					column++;
+					continue;
+				}
+				
+				// Fade each run of active tiles in one draw, then reset the
+				// tiles that have finished fading.
+				int start = column;
+				while (column < mColumns && mLife[rowOffset + column] > 0) {
+					column++;
+				}
+				setTileRect(row, start, column);
+				fade(mTileRect, mFadePaint);
+				mDirtyRegion.add(mTileRect.left, mTileRect.top,
+						mTileRect.right, mTileRect.bottom);
+				
+				for (int i = start; i < column; i++) {
+					mLife[rowOffset + i]--;
+					if (mLife[rowOffset + i] == 0) {
+						setTileRect(row, i, i + 1);
+						fade(mTileRect, null);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Marks an area drawn over this frame.
+	 */
+	public void mark(float left, float top, float right, float bottom) {
+		mDirtyRegion.add(left, top, right, bottom);
+		if (mDecay == 0) {
+			return;
+		}
+		
+		int firstColumn = Math.max(0, (int) left / TILE_SIZE);
+		int firstRow = Math.max(0, (int) top / TILE_SIZE);
+		int lastColumn = Math.min(mColumns - 1, (int) (right - 1) / TILE_SIZE);
+		int lastRow = Math.min(mRows - 1, (int) (bottom - 1) / TILE_SIZE);
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			int rowOffset = row * mColumns;
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				mLife[rowOffset + column] = mFadeFrames;
+			}
+		}
+	}
+	
+	/**
+	 * Finishes the frame, returning the parts of the layer that must be
+	 * copied to the screen.
+	 *
+	 * @return the changed region of the layer.
+	 */
+	public DirtyRegion finish() {
+		mDirtyRegion.end();
+		return mDirtyRegion;
+	}
+	
+	/**
+	 * Forces the whole layer to be copied to the screen on the next frame.
+	 * This should be called whenever the screen contents are lost.
+	 */
+	public void invalidate() {
+		mDirtyRegion.invalidate();
+	}
+	
+	/**
+	 * Draws the layer, upscaled to the screen size.
+	 * 
+	 * @param canvas - the screen canvas.
+	 */
+	public void composite(Canvas canvas) {
+		canvas.drawBitmap(mBitmap, null, mScreenRect, mScalePaint);
+	}
+	
+	/**
+	 * Returns the memory used by the layer.
+	 * 
+	 * @return the size of the layer bitmap, in bytes.
+	 */
+	public int getByteCount() {
+		return mBitmap.getRowBytes() * mBitmap.getHeight();
+	}
+	
+	/**
+	 * Frees the layer. It can't be used afterwards.
+	 */
+	public void recycle() {
+		mBitmap.recycle();
+	}
+	
+	/**
+	 * Sets mTileRect to a run of tiles within a row.
+	 *
+	 * @param row - the row of the run.
+	 * @param start - the first column of the run.
+	 * @param end - one past the last column of the run.
+	 */
+	private void setTileRect(int row, int start, int end) {
+		mTileRect.set(start * TILE_SIZE, row * TILE_SIZE,
+				Math.min(end * TILE_SIZE, mWidth),
+				Math.min((row + 1) * TILE_SIZE, mHeight));
+	}
+	
+	/**
+	 * Draws the background over an area of the layer.
+	 *
+	 * @param area - the area to draw over.
+	 * @param paint - paint giving the alpha to draw with, or null to replace
+	 * 		the area with the background entirely.
+	 */
+	private void fade(Rect area, Paint paint) {
+		if (mBackground.isSolid()) {
+			mFadePaint.setColor(mBackground.getColor());
+			mFadePaint.setAlpha((paint != null) ? mDecay : 255);
+			mCanvas.drawRect(area, mFadePaint);
+		} else if (!mBackground.isEmpty()) {
+			mCanvas.drawBitmap(mBackground.getBitmap(), area, area,
+					(paint != null) ? paint : mScalePaint);
+		}
+	}
+}
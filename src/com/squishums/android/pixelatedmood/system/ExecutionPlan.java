@@ -0,0 +1,211 @@
+package com.squishums.android.pixelatedmood.system;
+
+import android.util.FloatMath;
+
+import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
+
+
+/**
+ * A drop set compiled down to what the systems need each frame: which systems
+ * run, the constants they use, already combined where possible, and which
+ * variant of each inner loop to use. The plan is compiled once when the set is
+ * switched to, so the frame loop never has to dig through the preferences.
+ *
+ * A plan is immutable. It expects a set that has passed the preset validation
+ * done when the set is loaded.
+ */
+public class ExecutionPlan {
+
+	/** Pulsar falloff computed with Math.pow(). **/
+	public static final int FALLOFF_POW = 0;
+	/** Pulsar falloff with a whole exponent, computed by multiplication. **/
+	public static final int FALLOFF_INTEGER = 1;
+	
+	/** Drops drawn with the software raster. **/
+	public static final int DRAW_RASTER = 0;
+	/** Drops drawn one colour at a time. **/
+	public static final int DRAW_BULK = 1;
+	/** Drops drawn one sprite and colour at a time. **/
+	public static final int DRAW_SORTED = 2;
+	
+	// Largest exponent worth doing by multiplication rather than Math.pow().
+	private static final int FALLOFF_INTEGER_MAX = 4;
+	
+	/** The set the plan was compiled from. **/
+	public final PixelatedPreferences preferences;
+	
+	// Systems
+	public final boolean useWind;
+	public final boolean useGravity;
+	public final boolean usePulsar;
+	/** Whether drops have velocities (wind or pulsar). **/
+	public final boolean usePhysics;
+	
+	// Drops
+	public final int dropCount;
+	public final float spawnRate;
+	public final boolean recycle;
+	public final int spriteCount;
+	public final int colorCount;
+	/** Whether there is anything to draw, and so any point spawning. **/
+	public final boolean canSpawn;
+	
+	// Physics
+	/** Factor velocities are multiplied by each frame. **/
+	public final float dampening;
+	
+	// Wind
+	/** The wind angle, which drops are spawned against. **/
+	public final float windAngle;
+	/** Wind movement per frame along each axis. **/
+	public final float windX;
+	public final float windY;
+	/** Largest variance of a drop's wind along each axis, either way. **/
+	public final float windVarianceX;
+	public final float windVarianceY;
+	
+	// Gravity
+	public final float gravityForce;
+	public final boolean gravityUseZ;
+	/** Added to the gravity angle to get the spawn angle. **/
+	public final float gravitySpawnOffset;
+	
+	// Pulsar
+	public final float pulsarForce;
+	public final float pulsarMinDistance;
+	public final float pulsarFalloff;
+	/** The falloff exponent, for FALLOFF_INTEGER. **/
+	public final int pulsarFalloffPower;
+	/** FALLOFF_POW or FALLOFF_INTEGER. **/
+	public final int pulsarKernel;
+	
+	// Drawing
+	/** DRAW_RASTER, DRAW_BULK or DRAW_SORTED. **/
+	public final int drawMode;
+	/** Whether small sprites are drawn as points before the rest. **/
+	public final boolean drawPoints;
+	
+	
+	private ExecutionPlan(PixelatedPreferences prefs) {
+		preferences = prefs;
+		
+		PixelatedPreferences.DropPrefs dropPrefs = prefs.dropPrefs;
+		PixelatedPreferences.RenderPrefs renderPrefs = prefs.renderPrefs;
+		PixelatedPreferences.WindPrefs windPrefs = prefs.windPrefs;
+		PixelatedPreferences.GravityPrefs gravityPrefs = prefs.gravityPrefs;
+		PixelatedPreferences.PulsarPrefs pulsarPrefs = prefs.pulsarPrefs;
+		
+		useWind = windPrefs != null;
+		useGravity = gravityPrefs != null;
+		usePulsar = pulsarPrefs != null;
+		usePhysics = useWind || usePulsar;
+		
+		dropCount = dropPrefs.count;
+		spawnRate = dropPrefs.spawnRate;
+		spriteCount = renderPrefs.atlas.getSpriteCount();
+		colorCount = renderPrefs.colors.length;
+		canSpawn = spriteCount > 0 && colorCount > 0;
+		recycle = dropPrefs.recycle && canSpawn;
+		
+		dampening = (prefs.physicsPrefs != null)
+				? prefs.physicsPrefs.velocityDampeningFactor : 1;
+		
+		if (useWind) {
+			windAngle = windPrefs.angle;
+			windX = windPrefs.force * FloatMath.cos(windPrefs.angle);
+			windY = windPrefs.force * -FloatMath.sin(windPrefs.angle);
+			float windTotal = FloatMath.sqrt(windX*windX + windY*windY);
+			windVarianceX = windX / windTotal * windPrefs.forceVariance;
+			windVarianceY = windY / windTotal * windPrefs.forceVariance;
+		} else {
+			windAngle = 0;
+			windX = 0;
+			windY = 0;
+			windVarianceX = 0;
+			windVarianceY = 0;
+		}
+		
+		if (useGravity) {
+			gravityForce = gravityPrefs.force;
+			gravityUseZ = gravityPrefs.useZ;
+			// Drops spawn on the side gravity pulls them away from.
+			gravitySpawnOffset = (gravityPrefs.force > 0) ? (float) Math.PI : 0;
+		} else {
+			gravityForce = 0;
+			gravityUseZ = false;
+			gravitySpawnOffset = 0;
+		}
+		
+		if (usePulsar) {
+			pulsarForce = pulsarPrefs.force;
+			pulsarMinDistance = pulsarPrefs.minDistance;
+			pulsarFalloff = pulsarPrefs.falloffExponent;
+			pulsarFalloffPower = (int) pulsarFalloff;
+			pulsarKernel = (pulsarFalloffPower == pulsarFalloff
+					&& pulsarFalloffPower >= 0
+					&& pulsarFalloffPower <= FALLOFF_INTEGER_MAX)
+					? FALLOFF_INTEGER : FALLOFF_POW;
+		} else {
+			pulsarForce = 0;
+			pulsarMinDistance = 1;
+			pulsarFalloff = 0;
+			pulsarFalloffPower = 0;
+			pulsarKernel = FALLOFF_INTEGER;
+		}
+		
+		if (renderPrefs.raster) {
+			drawMode = DRAW_RASTER;
+		} else if (renderPrefs.bulkDraw) {
+			drawMode = DRAW_BULK;
+		} else {
+			drawMode = DRAW_SORTED;
+		}
+		drawPoints = !renderPrefs.raster && renderPrefs.pointSize > 0;
+	}
+	
+	/**
+	 * Compile a drop set into a plan.
+	 *
+	 * @param prefs - a validated drop set.
+	 * @return the plan for the set.
+	 */
+	public static ExecutionPlan compile(PixelatedPreferences prefs) {
+		return new ExecutionPlan(prefs);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(preferences.name)
+				.append(": ").append(dropCount).append(" drops");
+		if (useWind) {
+			builder.append(", wind");
+		}
+		if (useGravity) {
+			builder.append(", gravity");
+		}
+		if (usePulsar) {
+			builder.append(", pulsar (")
+					.append((pulsarKernel == FALLOFF_INTEGER)
+							? "integer falloff" : "pow falloff")
+					.append(")");
+		}
+		switch (drawMode) {
+		case DRAW_RASTER: {
+			builder.append(", raster");
+			break;
+		}
+		case DRAW_BULK: {
+			builder.append(", bulk draw");
+			break;
+		}
+		default: {
+			builder.append(", sorted draw");
+			break;
+		}
+		}
+		if (drawPoints) {
+			builder.append(", points");
+		}
+		return builder.toString();
+	}
+}
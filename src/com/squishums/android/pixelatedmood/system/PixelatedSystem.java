@@ -1,20 +1,34 @@
 package com.squishums.android.pixelatedmood.system;
 
-import android.graphics.Canvas;
+import com.squishums.android.pixelatedmood.World;
 
 
 /**
  * Abstract base class from which each system in the CES is derived. Derived
  * classes should implement process(), which is called every frame, to do their
  * work.
+ * 
+ * Systems don't draw in process(). Drawing is done separately by the
+ * SystemRender, through a RenderTarget.
+ * 
+ * Each system belongs to a single World, and works only on that world's drops
+ * and drop set.
  */
 public abstract class PixelatedSystem {
 	
+	/** The world the system works on. **/
+	protected final World mWorld;
+	
+	
+	/**
+	 * @param world - the world the system works on.
+	 */
+	protected PixelatedSystem(World world) {
+		mWorld = world;
+	}
+	
 	/**
 	 * Implement this to do work.
-	 * 
-	 * @param canvas - the canvas to draw to for this fram. This may not be
-	 * 		the canvas for the actual screen, depending on the rendering method. 
 	 */
-	abstract protected void process(Canvas canvas);
+	abstract protected void process();
 }
@@ -0,0 +1,141 @@
+package com.squishums.android.pixelatedmood.system;
+
+import com.squishums.android.pixelatedmood.PixelatedMood;
+
+
+/**
+ * Decides how many drops to spawn each frame.
+ *
+ * Spawning is paced by a token bucket. Tokens accumulate at the spawn rate,
+ * each spawned drop uses one, and the bucket holds at most a frame's burst
+ * worth of tokens, so no single frame ever spawns more than BURST_CAP drops.
+ *
+ * Unless a set gives an explicit rate, the spawn rate is the drop count
+ * divided by the lifetime of a drop, i.e. the rate at which a full screen of
+ * drops dies off. Filling the screen at that rate spreads the drops' ages
+ * evenly, so they don't die off (and respawn) in waves. The lifetime is
+ * measured as the average population divided by the rate drops die at, which
+ * holds for any steady state.
+ *
+ * Time is counted in frames of PixelatedMood.FRAME_DELAY, so the schedule
+ * only advances while drops are being simulated.
+ */
+class SpawnScheduler {
+
+	// Length of a frame, in seconds.
+	private static final float FRAME_SECONDS = PixelatedMood.FRAME_DELAY / 1000f;
+	// Maximum number of drops spawned in a single frame.
+	private static final int BURST_CAP = 16;
+	// Lifetime assumed until one has been measured, in seconds.
+	private static final float DEFAULT_LIFETIME = 4;
+	// Number of frames deaths are counted over for each lifetime measurement.
+	private static final int WINDOW_FRAMES = 30;
+	// Weight of each new lifetime measurement.
+	private static final float LIFETIME_SMOOTHING = 0.25f;
+	
+	private int mTargetCount = 0;
+	// Explicit spawn rate of the current set, in drops per second. 0 => derive
+	// the rate from the measured lifetime.
+	private float mSpawnRate = 0;
+	private float mTokens = 0;
+	
+	// Measured lifetime of a drop, in seconds. 0 until first measured.
+	private float mLifetime = 0;
+	// The current measurement window.
+	private int mWindowFrames = 0;
+	private int mWindowDeaths = 0;
+	private long mWindowPopulation = 0;
+	
+	
+	SpawnScheduler() { }
+	
+	/**
+	 * Starts scheduling for a drop set. This should be called whenever the
+	 * current drop set changes.
+	 *
+	 * @param targetCount - the number of drops to keep on screen.
+	 * @param spawnRate - drops to spawn per second, or 0 to derive the rate
+	 * 		from the drop lifetime.
+	 */
+	void reset(int targetCount, float spawnRate) {
+		mTargetCount = targetCount;
+		mSpawnRate = spawnRate;
+		mTokens = 0;
+		mLifetime = 0;
+		mWindowFrames = 0;
+		mWindowDeaths = 0;
+		mWindowPopulation = 0;
+	}
+	
+	/**
+	 * Records drops that died this frame.
+	 *
+	 * @param count - the number of drops that died.
+	 */
+	void onDropsKilled(int count) {
+		mWindowDeaths += count;
+	}
+	
+	/**
+	 * Advances the schedule by a frame, and returns the number of drops to
+	 * spawn in it. This must be called exactly once per frame.
+	 *
+	 * @param population - the number of drops alive.
+	 * @return the number of drops to spawn this frame.
+	 */
+	int nextFrame(int population) {
+		measureLifetime(population);
+		
+		mTokens = Math.min(BURST_CAP, mTokens + getSpawnRate() * FRAME_SECONDS);
+		int count = Math.max(0, Math.min((int) mTokens,
+				mTargetCount - population));
+		mTokens -= count;
+		
+		return count;
+	}
+	
+	/**
+	 * Returns the current spawn rate.
+	 *
+	 * @return the spawn rate, in drops per second.
+	 */
+	float getSpawnRate() {
+		if (mSpawnRate > 0) {
+			return mSpawnRate;
+		}
+		return mTargetCount / ((mLifetime > 0) ? mLifetime : DEFAULT_LIFETIME);
+	}
+	
+	/**
+	 * Returns the measured lifetime of a drop.
+	 *
+	 * @return the lifetime in seconds, or 0 if it hasn't been measured yet.
+	 */
+	float getLifetime() {
+		return mLifetime;
+	}
+	
+	/**
+	 * Adds a frame to the measurement window, updating the lifetime once the
+	 * window is full.
+	 */
+	private void measureLifetime(int population) {
+		mWindowFrames++;
+		mWindowPopulation += population;
+		if (mWindowFrames < WINDOW_FRAMES) {
+			return;
+		}
+		
+		if (mWindowDeaths > 0) {
+			float deathRate = mWindowDeaths / (mWindowFrames * FRAME_SECONDS);
+			float averagePopulation = (float) mWindowPopulation / mWindowFrames;
+			float lifetime = averagePopulation / deathRate;
+			mLifetime = (mLifetime > 0)
+					? mLifetime + LIFETIME_SMOOTHING * (lifetime - mLifetime)
+					: lifetime;
+		}
+		mWindowFrames = 0;
+		mWindowDeaths = 0;
+		mWindowPopulation = 0;
+	}
+}
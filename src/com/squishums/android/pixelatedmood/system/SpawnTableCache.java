@@ -0,0 +1,131 @@
+package com.squishums.android.pixelatedmood.system;
+
+import android.util.FloatMath;
+
+
+/**
+ * Cache of the splash bounds and spawn points used by the SystemLifecycle.
+ *
+ * The tables only depend on the screen size and drop size, but are needed
+ * again every time the set or orientation changes. Rotating between portrait
+ * and landscape flips between two screen sizes, so the tables for the last
+ * few sizes are kept, and are shared by every engine.
+ */
+class SpawnTableCache {
+
+	// Number of table sets to keep. Enough for both orientations of a couple
+	// of drop sizes.
+	private static final int CAPACITY = 4;
+	
+	// Cached tables, most recently used first.
+	private static final SpawnTables[] mEntries = new SpawnTables[CAPACITY];
+	private static int mEntryCount = 0;
+	
+	
+	private SpawnTableCache() { }
+	
+	/**
+	 * Returns the tables for the given screen and drop size, computing them if
+	 * they aren't cached.
+	 *
+	 * @param width - screen width.
+	 * @param height - screen height.
+	 * @param dropSize - largest dimension of the drop bitmap.
+	 * @param spawnPointCount - number of spawn points around the circle.
+	 * @return the tables. These must not be modified.
+	 */
+	static synchronized SpawnTables get(int width, int height, float dropSize,
+			int spawnPointCount) {
+		int index = 0;
+		while (index < mEntryCount
+				&& !mEntries[index].matches(width, height, dropSize,
+						spawnPointCount)) {
+			index++;
+		}
+		
+		SpawnTables tables;
+		if (index < mEntryCount) {
+			tables = mEntries[index];
+		} else {
+			tables = new SpawnTables(width, height, dropSize, spawnPointCount);
+			// Evict the least recently used entry if full.
+			index = Math.min(mEntryCount, CAPACITY - 1);
+			mEntryCount = Math.min(mEntryCount + 1, CAPACITY);
+		}
+		
+		// Move to the front.
+		for (int i = index; i > 0; i--) {
+			mEntries[i] = mEntries[i - 1];
+		}
+		mEntries[0] = tables;
+		
+		return tables;
+	}
+	
+	
+	/**
+	 * Splash bounds and spawn points for one screen and drop size.
+	 */
+	static class SpawnTables {
+		
+		private final int mWidth;
+		private final int mHeight;
+		private final float mDropSize;
+		
+		/** Radius of the splash circle, centred on the screen. **/
+		final float splashRadius;
+		/**
+		 * The splash boundaries, indexed by the "x index". The value at each
+		 * index is the absolute value of the y coordinate of the boundary.
+		 **/
+		final float[] splashBounds;
+		/**
+		 * Spawn points evenly spaced around a circle just inside the splash
+		 * bounds, counter-clockwise from the left of the screen. Point i is at
+		 * [2 * i], [2 * i + 1].
+		 **/
+		final float[] spawnPoints;
+		
+		
+		private SpawnTables(int width, int height, float dropSize,
+				int spawnPointCount) {
+			mWidth = width;
+			mHeight = height;
+			mDropSize = dropSize;
+			
+			float halfWidth = width / 2;
+			float halfHeight = height / 2;
+			
+			splashRadius = FloatMath.sqrt(
+					halfWidth*halfWidth + halfHeight*halfHeight) +
+					2 * dropSize;
+			splashBounds = new float[(int) (2 * splashRadius)];
+			for (int x = 0; x < splashBounds.length; x++) {
+				float realX = x - splashRadius;
+				splashBounds[x] = FloatMath.sqrt(
+						splashRadius*splashRadius
+						- realX*realX);
+			}
+			
+			final float radius = splashRadius - 3;
+			final float step = (float) ((2 * Math.PI) / spawnPointCount);
+			spawnPoints = new float[spawnPointCount * 2];
+			float angle = 0;
+			for (int i = 0; i < spawnPointCount; i++) {
+				spawnPoints[i * 2] = -FloatMath.cos(angle) * radius + width / 2;
+				spawnPoints[i * 2 + 1] =
+						FloatMath.sin(angle) * radius + height / 2;
+				
+				angle += step;
+			}
+		}
+		
+		private boolean matches(int width, int height, float dropSize,
+				int spawnPointCount) {
+			return mWidth == width
+					&& mHeight == height
+					&& mDropSize == dropSize
+					&& spawnPoints.length == spawnPointCount * 2;
+		}
+	}
+}
@@ -2,14 +2,12 @@ package com.squishums.android.pixelatedmood.system;
 
 import java.util.Arrays;
 
-import android.graphics.Canvas;
 import android.util.FloatMath;
 import android.util.Log;
 
+import com.squishums.android.pixelatedmood.World;
 import com.squishums.android.pixelatedmood.component.ComponentPosition;
 import com.squishums.android.pixelatedmood.drop.Drop;
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferencesManager;
 
 
 /**
@@ -35,13 +33,17 @@ public class SystemGravity extends PixelatedSystem {
 	private float mGravityMagnitude = 0;
 	
 	
-	protected SystemGravity() { }
+	protected SystemGravity(World world) {
+		super(world);
+	}
 	
-	public void process(Canvas canvas) {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
+	public void process() {
+		// The movement is the same for every drop.
+		float gravityForce = mWorld.getPlan().gravityForce;
+		float moveX = gravityForce * mGravityFactorX;
+		float moveY = gravityForce * mGravityFactorY;
 		
-		for (Drop drop : Drop.getDropManager().getBoundDrops()) {
+		for (Drop drop : mWorld.getDropManager().getBoundDrops()) {
 			ComponentPosition positionComponent = null;
 			try {
 				positionComponent = drop.getComponent(ComponentPosition.class);
@@ -50,10 +52,8 @@ public class SystemGravity extends PixelatedSystem {
 				continue;
 			}
 			
-			positionComponent.x -= prefs.gravityPrefs.force
-					* mGravityFactorX;
-			positionComponent.y -= prefs.gravityPrefs.force
-					* mGravityFactorY;
+			positionComponent.x -= moveX;
+			positionComponent.y -= moveY;
 		}
 	}
 	
@@ -66,9 +66,6 @@ public class SystemGravity extends PixelatedSystem {
 	 * 		in the form of [x, y, z].
 	 */
 	protected void onOrientationChange(float[] vector) {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
-		
 		float deltaX = Math.abs(mGravityVector[0] - vector[0]);
 		float deltaY = Math.abs(mGravityVector[1] - vector[1]);
 		float deltaZ = Math.abs(mGravityVector[2] - vector[2]);
@@ -87,7 +84,7 @@ public class SystemGravity extends PixelatedSystem {
 					vector[0] / mGravityMagnitudeXY);
 			mGravityAngleXY *= Math.signum(vector[1]);
 			
-			if (prefs.gravityPrefs.useZ) {
+			if (mWorld.getPlan().gravityUseZ) {
 				// Recalculate the strength of the gravity to include the Z axis
 				mGravityMagnitude = FloatMath.sqrt(
 						vector[0]*vector[0]
@@ -110,4 +107,24 @@ public class SystemGravity extends PixelatedSystem {
 	protected float getGravityAngleXY() {
 		return mGravityAngleXY;
 	}
+	
+	/**
+	 * Returns the X component of the direction of gravity, scaled by its
+	 * strength. Drops move by -force times this each frame.
+	 * 
+	 * @return the gravity factor along the X axis.
+	 */
+	protected float getGravityFactorX() {
+		return mGravityFactorX;
+	}
+	
+	/**
+	 * Returns the Y component of the direction of gravity, scaled by its
+	 * strength. Drops move by -force times this each frame.
+	 * 
+	 * @return the gravity factor along the Y axis.
+	 */
+	protected float getGravityFactorY() {
+		return mGravityFactorY;
+	}
 }
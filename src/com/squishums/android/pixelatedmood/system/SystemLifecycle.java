@@ -7,26 +7,28 @@ package com.squishums.android.pixelatedmood.system;
  * The SPAWN_POINT_ARC is the number of spawn points in use, half to the
  * left of the SpawnAngle and half to the right. The method of choosing
  * a SpawnAngle is different depending on whether the drops use a gravity
- * or wind component.
+ * or wind component. Either way, the angle is rounded to the nearest spawn
+ * point, so both share the same table of spawn points.
+ * 
+ * The splash bounds and spawn points are looked up in the SpawnTableCache, so
+ * that they are only computed once for each screen and drop size.
  */
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.util.FloatMath;
 import android.util.Log;
 
+import com.squishums.android.pixelatedmood.World;
 import com.squishums.android.pixelatedmood.component.ComponentPhysics;
 import com.squishums.android.pixelatedmood.component.ComponentPosition;
 import com.squishums.android.pixelatedmood.component.ComponentRenderable;
 import com.squishums.android.pixelatedmood.drop.Drop;
 import com.squishums.android.pixelatedmood.drop.DropManager;
 import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferencesManager;
+import com.squishums.android.pixelatedmood.preferences.PresetDiff;
+import com.squishums.android.pixelatedmood.util.RandomTable;
 
 
 /**
@@ -41,8 +43,21 @@ public class SystemLifecycle extends PixelatedSystem {
 	private static final int SPAWN_POINT_COUNT = 300;
 	// The number of degrees to spawn drops across.
 	private static final int SPAWN_POINT_ARC = 100;
+	// Time a warm start may take per frame (ns), and how many drops are
+	// spawned between checks of the time.
+	private static final long WARM_START_BUDGET = 10 * 1000 * 1000;
+	private static final int WARM_START_CHECK_INTERVAL = 32;
 	
-	private Random mRandom = new Random();
+	// Number of pre-generated random values used for spawning.
+	private static final int RANDOM_TABLE_SIZE = 4096;
+	
+	// Random values for the spawn path, drawn from the world's generator, so
+	// spawning is reproducible from the world's seed.
+	private RandomTable mRandom;
+	// Paces the spawning of drops.
+	private SpawnScheduler mSpawnScheduler = new SpawnScheduler();
+	// Whether the missing drops should be warm started next frame.
+	private boolean mWarmStartPending = false;
 	// Offscreen drops
 	private List<Drop> mDropsToRelease = new ArrayList<Drop>();
 	
@@ -50,44 +65,31 @@ public class SystemLifecycle extends PixelatedSystem {
 	// to the gravity system to get the optimal spawning angle.
 	private SystemGravity mGravitySystem;
 	
-	// Component usage
-	private boolean mUsePhysics;
-	private boolean mUseWind;
-	private boolean mUseGravity;
-	
 	// Spawn data
 	// Current angle at which drops are being spawned.
 	private float mSpawnAngle = 0;
-	// 
+	// Index of the spawn point nearest to the spawn angle.
 	private int mSpawnAngleIndex = 0;
-	// The splash boundaries, indexed the the "x index". The value at each
-	// index is the absolute value of the y coordinate of the boundary.
-	private float mSplashRadius;
-	private float[] mSplashBounds;
-	private float[][] mSpawnPoints;
+	// The splash bounds and spawn points for the current screen.
+	private SpawnTableCache.SpawnTables mSpawnTables;
 	
 	// Screen metrics
 	private int mScreenWidth = -1;
 	private int mScreenHeight = -1;
 	
-	// Wind spawn variables
-	private float mWindX;
-	private float mWindY;
-	private float mWindTotal;
-	
-	// Gravity spawn variables
-	private float mGravityForceSign = 1;
-	
 	
 	/**
 	 * Creates a new SystemLifecycle using the given gravity system.
+	 * @param world the world to spawn drops in.
 	 * @param gravitySystem the gravity system to poll for gravity data.
 	 */
-	protected SystemLifecycle(SystemGravity gravitySystem) {
+	protected SystemLifecycle(World world, SystemGravity gravitySystem) {
+		super(world);
 		mGravitySystem = gravitySystem;
+		mRandom = new RandomTable(RANDOM_TABLE_SIZE, world.getRandom());
 	}
 	
-	protected void process(Canvas canvas) {
+	protected void process() {
 		// Remove drops outside of the screen bounds
 		killDrops();
 		// Spawn more drops
@@ -96,10 +98,14 @@ public class SystemLifecycle extends PixelatedSystem {
 	
 	/**
 	 * Kills all drops that lie outside of the screen dimensions (plus a
-	 * small buffer zone.
+	 * small buffer zone. If the set recycles drops, they are respawned in
+	 * place instead, without being released to the pool.
 	 */
 	protected void killDrops() {
-		DropManager dropManager = Drop.getDropManager();
+		ExecutionPlan plan = mWorld.getPlan();
+		int recycledCount = 0;
+		
+		DropManager dropManager = mWorld.getDropManager();
 		for (Drop drop : dropManager.getBoundDrops()) {
 			ComponentPosition positionComponent = null;
 			try {
@@ -111,120 +117,195 @@ public class SystemLifecycle extends PixelatedSystem {
 			
 			if (!pointInBounds(positionComponent.x, positionComponent.y)) {
 				// Drop is outside of the screen bounds.
-				mDropsToRelease.add(drop);
+				if (plan.recycle) {
+					initDrop(plan, drop);
+					recycledCount++;
+				} else {
+					mDropsToRelease.add(drop);
+				}
 			}
 		}
 		
 		for (Drop drop : mDropsToRelease) {
 			dropManager.releaseDrop(drop);
 		}
+		// Recycled drops still count as deaths, for measuring the lifetime.
+		mSpawnScheduler.onDropsKilled(mDropsToRelease.size() + recycledCount);
 		mDropsToRelease.clear();
 	}
 	
 	/**
-	 * Spawns new drops at the current spawn angle.
+	 * Spawns new drops at the current spawn angle, as many as the spawn
+	 * scheduler allows this frame.
 	 */
 	protected void spawnDrops() {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
-		Bitmap[] bitmaps = prefs.renderPrefs.bitmaps;
-		Paint[] filters = prefs.renderPrefs.filters;
-		if (bitmaps.length == 0 || filters.length == 0) {
+		ExecutionPlan plan = mWorld.getPlan();
+		if (!plan.canSpawn) {
 			// Drops would be invisible, which, at the moment, means they would
 			// have no effect, so return.
 			return;
 		}
 		
-		// Vary the chance of spawning based on the number of drops. This should
-		// probably not be a linear relationship. The chance should never be
-		// greater than 1.0, which causes all drops to be created in the first
-		// frame (the problem is eventually fixed, as drops die off at different
-		// times).
-		double chance = prefs.dropPrefs.count / 400.0;
-		DropManager dropManager = Drop.getDropManager();
+		if (mWarmStartPending) {
+			mWarmStartPending = !warmStart(plan);
+		}
 		
-		for (int i = dropManager.getDropCount();
-				i < prefs.dropPrefs.count; i++) {
-			if (mRandom.nextFloat() > chance) { return; }
-			
-			Drop drop = dropManager.bindDrop();
-			
-			ComponentPosition positionComponent = null;
-			ComponentRenderable renderComponent = null;
-			ComponentPhysics physicsComponent = null;
-			try {
-				positionComponent = drop.getComponent(ComponentPosition.class);
-				renderComponent = drop.getComponent(ComponentRenderable.class);
-				
-				if (mUsePhysics) {
-					physicsComponent = 
-							drop.getComponent(ComponentPhysics.class);
-				}
-			} catch (IllegalArgumentException e) {
-				Log.e(LOG_TAG, "Drop is lacking a component");
-				continue;
-			}
-			
-			// Render
-			renderComponent.bitmap = bitmaps[mRandom.nextInt(bitmaps.length)];
-			renderComponent.filter = filters[mRandom.nextInt(filters.length)];
+		DropManager dropManager = mWorld.getDropManager();
+		int spawnCount = mSpawnScheduler.nextFrame(dropManager.getDropCount());
+		
+		for (int i = 0; i < spawnCount; i++) {
+			initDrop(plan, dropManager.bindDrop());
+		}
+	}
+	
+	/**
+	 * Gives a drop a fresh position at a spawn point, and new render and
+	 * physics parameters.
+	 * 
+	 * @param plan - the current drop set's plan.
+	 * @param drop - the drop to initialize.
+	 * @return true if the drop was initialized, false if it lacks components.
+	 */
+	private boolean initDrop(ExecutionPlan plan, Drop drop) {
+		ComponentPosition positionComponent = null;
+		ComponentRenderable renderComponent = null;
+		ComponentPhysics physicsComponent = null;
+		try {
+			positionComponent = drop.getComponent(ComponentPosition.class);
+			renderComponent = drop.getComponent(ComponentRenderable.class);
 			
-			// Position
-			if (mUseGravity) {
-				// The drops use gravity, so grab a spawn point from any of the
-				// spawn points near the SpawnAngleIndex.
-				float[] spawn = mSpawnPoints[getSpawnIndex()];
-				positionComponent.x = spawn[0];
-				positionComponent.y = spawn[1];
-			} else {
-				// The drops use wind, so grab a spawn point near the wind spawn
-				// angle.
-				int spawnIndex = mRandom.nextInt(SPAWN_POINT_ARC);
-				float[] spawn = mSpawnPoints[spawnIndex];
-				positionComponent.x = spawn[0];
-				positionComponent.y = spawn[1];
+			if (plan.usePhysics) {
+				physicsComponent = 
+						drop.getComponent(ComponentPhysics.class);
 			}
-			
-			if (mUseWind) {
-				setDropWind(physicsComponent);
+		} catch (IllegalArgumentException e) {
+			Log.e(LOG_TAG, "Drop is lacking a component");
+			return false;
+		}
+		
+		// Render
+		renderComponent.sprite = mRandom.nextInt(plan.spriteCount);
+		renderComponent.color = mRandom.nextInt(plan.colorCount);
+		
+		// Position. Grab a spawn point from any of the spawn points near
+		// the SpawnAngleIndex, which follows either the gravity or wind.
+		int spawnIndex = getSpawnIndex();
+		positionComponent.x = mSpawnTables.spawnPoints[spawnIndex * 2];
+		positionComponent.y = mSpawnTables.spawnPoints[spawnIndex * 2 + 1];
+		
+		if (plan.useWind) {
+			setDropWind(plan, physicsComponent);
+		}
+		
+		if (plan.usePhysics) {
+			setDropPhysics(physicsComponent);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Requests a warm start: the missing drops will be spawned all at once at
+	 * the start of the next frame, as if they had been falling for a while.
+	 * This should be called whenever the screen would otherwise start out
+	 * empty, e.g. after the drop set changes.
+	 */
+	protected void requestWarmStart() {
+		mWarmStartPending = true;
+	}
+	
+	/**
+	 * Spawns drops up to the drop count, each placed a random distance along
+	 * its path from its spawn point to the splash bounds. Drops move in a
+	 * straight line at a constant speed (unless touched), so their ages, and
+	 * therefore distances travelled, are evenly spread in the steady state.
+	 * Stops early if it runs past WARM_START_BUDGET.
+	 * 
+	 * Nothing is spawned while the set doesn't move its drops yet, e.g. before
+	 * gravity has been sensed, as every drop would be left on its spawn point.
+	 * 
+	 * @param plan - the current drop set's plan.
+	 * @return true if the drop count was reached.
+	 */
+	private boolean warmStart(ExecutionPlan plan) {
+		// The set's direction of travel, without each drop's wind variance.
+		float veloX = plan.windX;
+		float veloY = plan.windY;
+		if (plan.useGravity) {
+			veloX -= plan.gravityForce * mGravitySystem.getGravityFactorX();
+			veloY -= plan.gravityForce * mGravitySystem.getGravityFactorY();
+		}
+		float speed = FloatMath.sqrt(veloX*veloX + veloY*veloY);
+		if (speed == 0) {
+			// Try again next frame.
+			return false;
+		}
+		float dirX = veloX / speed;
+		float dirY = veloY / speed;
+		
+		DropManager dropManager = mWorld.getDropManager();
+		long deadline = System.nanoTime() + WARM_START_BUDGET;
+		
+		for (int i = dropManager.getDropCount(); i < plan.dropCount; i++) {
+			Drop drop = dropManager.bindDrop();
+			if (initDrop(plan, drop)) {
+				advanceDrop(drop, dirX, dirY);
 			}
 			
-			if (mUsePhysics) {
-				setDropPhysics(physicsComponent);
+			if (i % WARM_START_CHECK_INTERVAL == 0
+					&& System.nanoTime() > deadline) {
+				return false;
 			}
 		}
+		
+		return true;
 	}
+	
+	/**
+	 * Moves a freshly spawned drop a random distance along its path to the
+	 * splash bounds.
+	 * 
+	 * @param drop - the drop to move.
+	 * @param dirX - x part of the unit direction the drop travels in.
+	 * @param dirY - y part of the unit direction the drop travels in.
+	 */
+	private void advanceDrop(Drop drop, float dirX, float dirY) {
+		ComponentPosition positionComponent =
+				drop.getComponent(ComponentPosition.class);
 		
+		// Distance along the direction of travel to the splash circle.
+		float relX = positionComponent.x - mScreenWidth / 2;
+		float relY = positionComponent.y - mScreenHeight / 2;
+		float radius = mSpawnTables.splashRadius - 1;
+		float along = relX*dirX + relY*dirY;
+		float discriminant = along*along
+				- (relX*relX + relY*relY - radius*radius);
+		if (discriminant < 0) {
+			return;
+		}
+		float distance = -along + FloatMath.sqrt(discriminant);
+		
+		float travelled = distance * mRandom.nextFloat();
+		positionComponent.x += dirX * travelled;
+		positionComponent.y += dirY * travelled;
+	}
+	
 	/* ***************************************************************
 	 * Lifecycle related methods
 	 * ***************************************************************/
 	/**
-	 * Updates the boundaries for drop removal. This should be called whenever
-	 * the screen orientation or resolution changes.
+	 * Updates the boundaries for drop removal and the spawn points. This
+	 * should be called whenever the screen orientation or resolution, or the
+	 * drop set, changes.
 	 */
-	private void updateSplashBounds() {	
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
+	private void updateSpawnTables() {
+		PixelatedPreferences prefs = mWorld.getPreferences();
 		
-		float halfWidth = mScreenWidth / 2;
-		float halfHeight = mScreenHeight / 2;
 		float dropSize = Math.max(
 				prefs.dropPrefs.width,
 				prefs.dropPrefs.height);
-		
-		mSplashRadius = FloatMath.sqrt(
-				halfWidth*halfWidth + halfHeight*halfHeight) +
-				2 * dropSize;
-		mSplashBounds = new float[(int) (2 * mSplashRadius)];
-		
-		for (int x = 0; x < (int) (2 * mSplashRadius); x++) {
-			// Recalculate the spawn points.
-			float realX = x - mSplashRadius;
-			float bound = FloatMath.sqrt(
-					mSplashRadius*mSplashRadius
-					- realX*realX);
-			mSplashBounds[x] = bound;
-		}
+		mSpawnTables = SpawnTableCache.get(mScreenWidth, mScreenHeight,
+				dropSize, SPAWN_POINT_COUNT);
 	}
 	
 	/**
@@ -236,10 +317,10 @@ public class SystemLifecycle extends PixelatedSystem {
 	 */
 	private boolean pointInBounds(float x, float y) {
 		final int index = xToIndex(x);
-		final int upperBound = (int) (2 * mSplashRadius);
+		final float[] splashBounds = mSpawnTables.splashBounds;
 		
-		if (index >= 0 && index < upperBound) {
-			return (mSplashBounds[index] > Math.abs(y - mScreenHeight / 2));
+		if (index >= 0 && index < splashBounds.length) {
+			return (splashBounds[index] > Math.abs(y - mScreenHeight / 2));
 		}
 		return false;
 	}
@@ -252,7 +333,7 @@ public class SystemLifecycle extends PixelatedSystem {
 	 * @return the splash boundary index for that screen coordinate.
 	 */
 	private int xToIndex(float x) {
-		return (int) (x + (mSplashRadius - mScreenWidth / 2));
+		return (int) (x + (mSpawnTables.splashRadius - mScreenWidth / 2));
 	}
 	
 	
@@ -260,60 +341,18 @@ public class SystemLifecycle extends PixelatedSystem {
 	 * Wind
 	 * ***************************************************************/
 	/**
-	 * Recalculates the spawn points based on the wind.
-	 */
-	private void updateWindSpawnPoints() {
-		if (mSpawnPoints == null || mSpawnPoints.length != SPAWN_POINT_ARC) {
-			mSpawnPoints = new float[SPAWN_POINT_ARC][2];
-		}
-		
-		float radius = mSplashRadius - 3;
-		float step = (float) ((2 * Math.PI) / SPAWN_POINT_COUNT);
-		float angle = mSpawnAngle
-				- step * SPAWN_POINT_ARC / 2;
-
-		for (int i = 0; i < SPAWN_POINT_ARC; i++) {
-			float x = -FloatMath.cos(angle) * radius + mScreenWidth / 2;
-			float y = FloatMath.sin(angle) * radius + mScreenHeight / 2;
-			mSpawnPoints[i][0] = x;
-			mSpawnPoints[i][1] = y;
-			
-			angle += step;
-		}
-	}
-	
-	/**
-	 * Recalculates some internal wind force-related variables. 
+	 * Gives a drop its own share of the wind, within the set's variance.
 	 * 
-	 * @param physicsComponent - physicsComponent of the current drop
-	 * 		preferences set.
+	 * @param plan - the current drop set's plan.
+	 * @param physicsComponent - physicsComponent of the drop.
 	 */
-	private void setDropWind(ComponentPhysics physicsComponent) {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
-		
-		float windVariance = (2 * mRandom.nextFloat() - 1)
-				* prefs.windPrefs.forceVariance;
-		float windVarianceX = (mWindX / mWindTotal) * windVariance;
-		float windVarianceY = (mWindY / mWindTotal) * windVariance;
-		physicsComponent.windFactorX = mWindX + windVarianceX;
-		physicsComponent.windFactorY = mWindY + windVarianceY;
-	}
-	
-	/**
-	 * Updates the wind angle and force.
-	 */
-	private void updateWind() {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
-		
-		mSpawnAngle = prefs.windPrefs.angle;
-		mWindX = prefs.windPrefs.force
-				* FloatMath.cos(prefs.windPrefs.angle);
-		mWindY = prefs.windPrefs.force
-				* -FloatMath.sin(prefs.windPrefs.angle);
-		
-		mWindTotal = FloatMath.sqrt(mWindX*mWindX + mWindY*mWindY);
+	private void setDropWind(ExecutionPlan plan,
+			ComponentPhysics physicsComponent) {
+		float variance = 2 * mRandom.nextFloat() - 1;
+		physicsComponent.windFactorX = plan.windX
+				+ plan.windVarianceX * variance;
+		physicsComponent.windFactorY = plan.windY
+				+ plan.windVarianceY * variance;
 	}
 	
 	/* ***************************************************************
@@ -325,13 +364,8 @@ public class SystemLifecycle extends PixelatedSystem {
 	 * @param vector - 3D vector from the gravity sensor. [x, y, z]
 	 */
 	protected void onOrientationChange(float[] vector) {
-		mSpawnAngle = (float) (mGravitySystem.getGravityAngleXY());
-		mSpawnAngle += (mGravityForceSign > 0) ? Math.PI : 0;
-		
-		mSpawnAngleIndex = (int)
-				((SPAWN_POINT_COUNT * (mSpawnAngle / (Math.PI * 2))
-						% SPAWN_POINT_COUNT));
-		mSpawnAngleIndex += (mSpawnAngleIndex < 0) ? SPAWN_POINT_COUNT : 0;
+		setSpawnAngle(mGravitySystem.getGravityAngleXY()
+				+ mWorld.getPlan().gravitySpawnOffset);
 	}
 	
 	/* ***************************************************************
@@ -351,25 +385,17 @@ public class SystemLifecycle extends PixelatedSystem {
 	 * Misc.
 	 * ***************************************************************/
 	/**
-	 * Updates the spawn points used by both the gravity and wind systems.
+	 * Sets the angle drops are spawned at, rounded to the nearest spawn
+	 * point.
+	 * 
+	 * @param angle - the spawn angle, in radians.
 	 */
-	private void updateStaticSpawnPoints() {
-		if (mSpawnPoints == null || mSpawnPoints.length != SPAWN_POINT_COUNT) {
-			mSpawnPoints = new float[SPAWN_POINT_COUNT][2];
-		}
-		
-		final float radius = mSplashRadius - 3;
-		final float step = (float) ((2 * Math.PI) / SPAWN_POINT_COUNT);
-		float angle = 0;
-		
-		for (int i = 0; i < SPAWN_POINT_COUNT; i++) {
-			float x = -FloatMath.cos(angle) * radius + mScreenWidth / 2;
-			float y = FloatMath.sin(angle) * radius + mScreenHeight / 2;
-			mSpawnPoints[i][0] = x;
-			mSpawnPoints[i][1] = y;
-			
-			angle += step;
-		}
+	private void setSpawnAngle(float angle) {
+		mSpawnAngle = angle;
+		mSpawnAngleIndex = Math.round(
+				(float) (SPAWN_POINT_COUNT * (mSpawnAngle / (Math.PI * 2))))
+				% SPAWN_POINT_COUNT;
+		mSpawnAngleIndex += (mSpawnAngleIndex < 0) ? SPAWN_POINT_COUNT : 0;
 	}
 	
 	/**
@@ -402,49 +428,67 @@ public class SystemLifecycle extends PixelatedSystem {
 		mScreenHeight = height;
 		
 		if (change) {
-			updateSplashBounds();
-			if (mUseGravity) {
-				updateStaticSpawnPoints();
-			} else {
-				updateWindSpawnPoints();
-			}
+			updateSpawnTables();
 		}
 	}
 	
 	/**
 	 * Update the drop set being used by the spawn system. This should be
-	 * 	called whenever the current drop set changes.
+	 * 	called whenever the current drop set changes. Drops already on screen
+	 * 	are kept, and adjusted to the new set where needed.
+	 * 
+	 * @param diff - what changed from the previous set.
 	 */
-	protected void onPreferencesUpdated() {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
+	protected void onPreferencesUpdated(PresetDiff diff) {
+		ExecutionPlan plan = mWorld.getPlan();
 		
-		checkLoadableComponents();
-		if (mUseWind) {
-			updateWind();
+		if (diff.changed(PresetDiff.DROP_COUNT | PresetDiff.SPAWNING)) {
+			mSpawnScheduler.reset(plan.dropCount, plan.spawnRate);
+		}
+		if (diff.changed(PresetDiff.DROP_COUNT)) {
+			requestWarmStart();
+		}
+		if (plan.useWind && diff.changed(PresetDiff.WIND)) {
+			setSpawnAngle(plan.windAngle);
+			resetDropWind(plan);
 		}
 		
-		updateSplashBounds();
-		if (mUseGravity) {
-			mGravityForceSign =
-					Math.signum(prefs.gravityPrefs.force);
-			updateStaticSpawnPoints();
-		} else {
-			updateWindSpawnPoints();
+		if (diff.changed(PresetDiff.DROP_SIZE)) {
+			updateSpawnTables();
+		}
+		if (diff.changed(PresetDiff.SPRITES)) {
+			remapDrops(plan);
 		}
 	}
 	
 	/**
-	 * Determines whether or not to preform logic related to different drop
-	 * set components.
+	 * Wraps the sprite and colour of each drop on screen into the range of the
+	 * current set, so the drops can be kept when the sprites change.
+	 * 
+	 * @param plan - the current drop set's plan.
 	 */
-	private void checkLoadableComponents() {
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
+	private void remapDrops(ExecutionPlan plan) {
+		if (!plan.canSpawn) {
+			// Nothing new will be drawn, so the indices don't matter.
+			return;
+		}
 		
-		mUseWind = prefs.windPrefs != null;
-		mUseGravity = prefs.gravityPrefs != null;
-		mUsePhysics = mUseWind
-				|| prefs.pulsarPrefs != null;
+		for (Drop drop : mWorld.getDropManager().getBoundDrops()) {
+			ComponentRenderable renderComponent =
+					drop.getComponent(ComponentRenderable.class);
+			renderComponent.sprite %= plan.spriteCount;
+			renderComponent.color %= plan.colorCount;
+		}
+	}
+	
+	/**
+	 * Gives each drop on screen a new share of the current wind.
+	 * 
+	 * @param plan - the current drop set's plan.
+	 */
+	private void resetDropWind(ExecutionPlan plan) {
+		for (Drop drop : mWorld.getDropManager().getBoundDrops()) {
+			setDropWind(plan, drop.getComponent(ComponentPhysics.class));
+		}
 	}
 }
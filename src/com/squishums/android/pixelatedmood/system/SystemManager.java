@@ -9,15 +9,17 @@ package com.squishums.android.pixelatedmood.system;
  */
 
 import android.content.Context;
-import android.graphics.Canvas;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.view.MotionEvent;
 
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferencesManager;
+import com.squishums.android.pixelatedmood.World;
+import com.squishums.android.pixelatedmood.preferences.PresetDiff;
+import com.squishums.android.pixelatedmood.render.BackgroundCache;
+import com.squishums.android.pixelatedmood.render.DirtyRegion;
+import com.squishums.android.pixelatedmood.render.RenderTarget;
 
 
 /**
@@ -26,7 +28,14 @@ import com.squishums.android.pixelatedmood.preferences.PixelatedPreferencesManag
  */
 public class SystemManager {
 
+	private final World mWorld;
 	private SystemSensorListener mSensorListener = new SystemSensorListener();
+	// The sensor service, once the world has been shown. Worlds that are never
+	// shown, such as the preset previews, never use the sensors.
+	private SensorManager mSensorManager;
+	private boolean mVisible = false;
+	// Whether mSensorListener is registered for the gravity sensor.
+	private boolean mGravityRegistered = false;
 	
 	private SystemWind mWindSystem;
 	private SystemGravity mGravitySystem;
@@ -34,36 +43,68 @@ public class SystemManager {
 	private SystemPulsar mPulsarSystem;
 	private SystemRender mRenderSystem;
 	
-	private boolean mUseWind;
-	private boolean mUsePulsar;
-	private boolean mUseGravity;
-	
-	public SystemManager() {
-		mWindSystem = new SystemWind();
-		mGravitySystem = new SystemGravity();
-		mPulsarSystem = new SystemPulsar();
-		mLifecycleSystem = new SystemLifecycle(mGravitySystem);
-		mRenderSystem = new SystemRender();
+	/**
+	 * Creates the systems of a world. The world's drop set must be set before
+	 * the first update().
+	 * 
+	 * @param world - the world the systems work on.
+	 */
+	public SystemManager(World world) {
+		mWorld = world;
+		mWindSystem = new SystemWind(world);
+		mGravitySystem = new SystemGravity(world);
+		mPulsarSystem = new SystemPulsar(world);
+		mLifecycleSystem = new SystemLifecycle(world, mGravitySystem);
+		mRenderSystem = new SystemRender(world);
 	}
 	
 	/**
-	 * Process the logic for each system in the CES.
-	 * 
-	 * @param canvas - the canvas to do any draw to.
+	 * Process the logic for each system in the CES, without drawing anything.
+	 * This must be followed by a call to render().
 	 */
-	public void process(Canvas canvas) {
-		if (mUseWind) {
-			mWindSystem.process(canvas);
+	public void update() {
+		ExecutionPlan plan = mWorld.getPlan();
+		
+		if (plan.useWind) {
+			mWindSystem.process();
 		}
-		if (mUsePulsar) {
-			mPulsarSystem.process(canvas);
+		if (plan.usePulsar) {
+			mPulsarSystem.process();
 		}
-		if (mUseGravity) {
-			mGravitySystem.process(canvas);
+		if (plan.useGravity) {
+			mGravitySystem.process();
 		}
 		
-		mLifecycleSystem.process(canvas);
-		mRenderSystem.process(canvas);
+		mLifecycleSystem.process();
+		mRenderSystem.process();
+	}
+	
+	/**
+	 * Draw the drops as of the last call to update().
+	 * 
+	 * @param target - the target to draw to.
+	 */
+	public void render(RenderTarget target) {
+		mRenderSystem.render(target);
+	}
+	
+	/**
+	 * Returns the region of the screen changed by the last call to update().
+	 * This is only tracked when the current drop set uses dirty rects.
+	 * 
+	 * @return the dirty region.
+	 */
+	public DirtyRegion getDirtyRegion() {
+		return mRenderSystem.getDirtyRegion();
+	}
+	
+	/**
+	 * Returns the background of the current drop set.
+	 * 
+	 * @return the background, pre-rendered for the screen size.
+	 */
+	public BackgroundCache getBackground() {
+		return mRenderSystem.getBackground();
 	}
 	
 	/**
@@ -75,6 +116,26 @@ public class SystemManager {
 	 */
 	public void setScreenDimensions(int width, int height) {
 		mLifecycleSystem.setScreenDimensions(width, height);
+		mRenderSystem.setScreenDimensions(width, height);
+	}
+	
+	/**
+	 * Returns the number of drops drawn during the last frame.
+	 * 
+	 * @return the number of drops drawn during the last frame.
+	 */
+	public int getDrawnDropCount() {
+		return mRenderSystem.getDrawnCount();
+	}
+	
+	/**
+	 * Returns the number of drops skipped by the render system during the last
+	 * frame because they were off screen.
+	 * 
+	 * @return the number of drops culled during the last frame.
+	 */
+	public int getCulledDropCount() {
+		return mRenderSystem.getCulledCount();
 	}
 	
 	/**
@@ -83,7 +144,7 @@ public class SystemManager {
 	 * @param event - the touch event.
 	 */
 	public void onTouch(MotionEvent event) {
-		if (mUsePulsar) {
+		if (mWorld.getPlan().usePulsar) {
 			mPulsarSystem.onTouch(event);
 		}
 	}
@@ -95,23 +156,36 @@ public class SystemManager {
 	 */
 	public void onSensorEvent(SensorEvent event) {
 		if (event.sensor.getType() == Sensor.TYPE_GRAVITY) {
-			mGravitySystem.onOrientationChange(event.values);
-			mLifecycleSystem.onOrientationChange(event.values);
+			setGravity(event.values);
 		}
 	}
 	
 	/**
-	 * Inform all systems that the current drop preference set has changed.
+	 * Inform the applicable systems of the direction of gravity. This is
+	 * normally done by the gravity sensor, but worlds run without one, such
+	 * as the preset previews, may set it themselves.
+	 * 
+	 * @param vector - the gravity vector, in the form of [x, y, z], as
+	 * 		reported by the gravity sensor.
+	 */
+	public void setGravity(float[] vector) {
+		mGravitySystem.onOrientationChange(vector);
+		mLifecycleSystem.onOrientationChange(vector);
+	}
+	
+	/**
+	 * Inform all systems that the world's drop preference set has changed.
+	 * 
+	 * @param diff - what changed from the previous set.
 	 */
-	public void onPreferencesUpdated() {
-		PixelatedPreferences prefs = 
-				PixelatedPreferencesManager.getCurrentPreferences();
+	public void onPreferencesUpdated(PresetDiff diff) {
+		mLifecycleSystem.onPreferencesUpdated(diff);
+		mRenderSystem.onPreferencesUpdated(diff);
 		
-		mUseWind = prefs.windPrefs != null;
-		mUsePulsar = prefs.pulsarPrefs != null;
-		mUseGravity = prefs.gravityPrefs != null;
-
-		mLifecycleSystem.onPreferencesUpdated();
+		if (diff.changed(PresetDiff.GRAVITY)) {
+			// The set may have gained or lost gravity while shown.
+			updateGravitySensor();
+		}
 	}
 	
 	/**
@@ -123,23 +197,43 @@ public class SystemManager {
 	 * @param visible
 	 */
 	public void onVisibilityChanged(Context context, boolean visible) {
-		SensorManager sensorManager =
-				(SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+		if (mSensorManager == null) {
+			mSensorManager = (SensorManager)
+					context.getSystemService(Context.SENSOR_SERVICE);
+		}
+		mVisible = visible;
 		
 		if (visible) {
-			if (mUseGravity) {
-				Sensor gravitySensor = 
-						sensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
-				sensorManager.registerListener(mSensorListener,
-						gravitySensor, SensorManager.SENSOR_DELAY_UI);
-			}
+			// The screen may have been drawn over while hidden.
+			mRenderSystem.invalidate();
+			mLifecycleSystem.requestWarmStart();
+		}
+		updateGravitySensor();
+	}
+	
+	/**
+	 * Register for the gravity sensor while the world is visible and its drop
+	 * set uses gravity, and unregister otherwise.
+	 */
+	private void updateGravitySensor() {
+		if (mSensorManager == null) {
+			return;
+		}
+		
+		boolean useGravity = mVisible && mWorld.getPlan().useGravity;
+		if (useGravity == mGravityRegistered) {
+			return;
+		}
+		
+		Sensor gravitySensor =
+				mSensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
+		if (useGravity) {
+			mSensorManager.registerListener(mSensorListener,
+					gravitySensor, SensorManager.SENSOR_DELAY_UI);
 		} else {
-			if (mUseGravity) {
-				Sensor gravitySensor = 
-						sensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
-				sensorManager.unregisterListener(mSensorListener, gravitySensor);
-			}
+			mSensorManager.unregisterListener(mSensorListener, gravitySensor);
 		}
+		mGravityRegistered = useGravity;
 	}
 	
 	
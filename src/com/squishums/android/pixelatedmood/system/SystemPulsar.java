@@ -3,16 +3,14 @@ package com.squishums.android.pixelatedmood.system;
 import java.util.ArrayList;
 import java.util.List;
 
-import android.graphics.Canvas;
 import android.util.FloatMath;
 import android.view.MotionEvent;
 
+import com.squishums.android.pixelatedmood.World;
 import com.squishums.android.pixelatedmood.component.ComponentPhysics;
 import com.squishums.android.pixelatedmood.component.ComponentPosition;
 import com.squishums.android.pixelatedmood.drop.Drop;
 import com.squishums.android.pixelatedmood.drop.DropManager;
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
-import com.squishums.android.pixelatedmood.preferences.PixelatedPreferencesManager;
 
 
 /**
@@ -30,13 +28,16 @@ public class SystemPulsar extends PixelatedSystem {
 			new ArrayList<float[]>(POINTERS_TO_TRACK);
 	
 	
-	protected SystemPulsar() { }
+	protected SystemPulsar(World world) {
+		super(world);
+	}
 	
-	public void process(Canvas canvas) {
+	public void process() {
 		float[] pointer = null;
-		DropManager dropManager = Drop.getDropManager();
-		PixelatedPreferences prefs =
-				PixelatedPreferencesManager.getCurrentPreferences();
+		DropManager dropManager = mWorld.getDropManager();
+		ExecutionPlan plan = mWorld.getPlan();
+		float minDistance = plan.pulsarMinDistance;
+		float dampening = plan.dampening;
 		
 		for (Drop drop : dropManager.getBoundDrops()) {
 			ComponentPosition positionComponent;
@@ -60,40 +61,44 @@ public class SystemPulsar extends PixelatedSystem {
 				float deltaY = pointer[1] - positionComponent.y;
 				float distance = Math.max(
 						FloatMath.sqrt(deltaX*deltaX + deltaY*deltaY),
-						prefs.pulsarPrefs.minDistance);
+						minDistance);
 				
-				float force = getForce(
-						prefs.pulsarPrefs.force,
-						prefs.pulsarPrefs.falloffExponent,
-						distance);
+				// Force along the unit vector to the pointer.
+				float scale = getForce(plan, distance) / distance;
 				
-				physicsComponent.veloX += force * deltaX / distance;
-				physicsComponent.veloY += force * deltaY / distance;
+				physicsComponent.veloX += scale * deltaX;
+				physicsComponent.veloY += scale * deltaY;
 			}
 			
 			// Push the drop
 			positionComponent.x += physicsComponent.veloX;
 			positionComponent.y += physicsComponent.veloY;
 			// Dampen the velocity
-			physicsComponent.veloX *=
-					prefs.physicsPrefs.velocityDampeningFactor;
-			physicsComponent.veloY *=
-					prefs.physicsPrefs.velocityDampeningFactor;
+			physicsComponent.veloX *= dampening;
+			physicsComponent.veloY *= dampening;
 		}
 	}
 	
 	/**
 	 * Return the force that should be applied to a drop based on the given
-	 * information.
+	 * information. Whole falloff exponents avoid the cost of Math.pow().
 	 * 
-	 * @param force - the force specified in the drop set's preferences.
-	 * @param falloff - the falloff specified in the drop set's preferences.
+	 * @param plan - the current drop set's plan.
 	 * @param distance - the absolute distance between the pointer and the
 	 * 		drop.
 	 * @return the absolute force to apply to the drop.
 	 */
-	private float getForce(float force, float falloff, float distance) {
-		return force / (float) Math.pow(distance, falloff);
+	private float getForce(ExecutionPlan plan, float distance) {
+		if (plan.pulsarKernel == ExecutionPlan.FALLOFF_INTEGER) {
+			float falloff = 1;
+			for (int i = 0; i < plan.pulsarFalloffPower; i++) {
+				falloff *= distance;
+			}
+			return plan.pulsarForce / falloff;
+		}
+		
+		return plan.pulsarForce
+				/ (float) Math.pow(distance, plan.pulsarFalloff);
 	}
 	
 	/**
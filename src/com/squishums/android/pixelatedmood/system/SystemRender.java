@@ -1,23 +1,201 @@
 package com.squishums.android.pixelatedmood.system;
 
+import java.util.List;
+
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 
+import com.squishums.android.pixelatedmood.World;
 import com.squishums.android.pixelatedmood.component.ComponentPosition;
 import com.squishums.android.pixelatedmood.component.ComponentRenderable;
 import com.squishums.android.pixelatedmood.drop.Drop;
+import com.squishums.android.pixelatedmood.preferences.PixelatedPreferences;
+import com.squishums.android.pixelatedmood.preferences.PresetDiff;
+import com.squishums.android.pixelatedmood.render.BackgroundCache;
+import com.squishums.android.pixelatedmood.render.DirtyRegion;
+import com.squishums.android.pixelatedmood.render.RenderTarget;
+import com.squishums.android.pixelatedmood.render.SoftwareRaster;
+import com.squishums.android.pixelatedmood.render.SpriteAtlas;
 
 
 /**
  * Rendering system for the drops. All drop drawing is done here.
+ * 
+ * Drops are kept alive by the SystemLifecycle until they leave the splash
+ * bounds, which extend well past the edges of the screen. Drops whose bitmap
+ * lies entirely outside of the viewport are culled here instead of being
+ * blitted.
+ * 
+ * All sprites are drawn from regions of the current set's sprite atlas. The
+ * colour of each drop is baked into a tinted copy of the atlas when the set is
+ * loaded, so drops are drawn without any filtering.
+ * 
+ * Each frame, the visible drops are sorted by colour and sprite (a counting
+ * sort, as there are at most a hundred combinations) so that draws sharing a
+ * bitmap are issued together. When the set asks for bulk drawing, every drop
+ * of a colour is drawn with a single drawSprites() call against the tinted
+ * atlas instead of one drawSprite() per drop.
+ * 
+ * Sets can also give a point size, below which sprites are not worth blitting:
+ * drops with a sprite that appears that small are drawn as solid points
+ * instead, with one drawPoints() call per colour and sprite.
+ * 
+ * Gathering and sorting happens in process(), before the screen is locked, so
+ * that the area covered by the drops can be used to lock only the dirty part
+ * of the screen. The drops are drawn to a RenderTarget by render().
+ * 
+ * Sets can also ask for the drops to be composited in software, into a
+ * SoftwareRaster covering the whole screen, which is then copied to the target
+ * in one call.
+ * 
+ * The background of the current set is kept pre-rendered for the screen size
+ * in a BackgroundCache, which is rebuilt when the screen or set changes.
  */
 public class SystemRender extends PixelatedSystem {
 
-	protected SystemRender() { }
+	// Maximum number of distinct sprite and colour combinations.
+	private static final int MAX_STATES =
+			PixelatedPreferences.RenderPrefs.BITMAP_COUNT_MAX
+			* PixelatedPreferences.RenderPrefs.COLOR_COUNT_MAX;
+	// Maximum number of drops drawn per drawSprites() call. Vertex indices
+	// are shorts, so this must stay below 8192 (4 vertices per drop).
+	private static final int MAX_BATCH_SIZE = 1024;
+	
+	// Viewport metrics
+	private int mScreenWidth = 0;
+	private int mScreenHeight = 0;
+	
+	// Per-frame render statistics.
+	private int mDrawnCount = 0;
+	private int mCulledCount = 0;
+	
+	// Destination rect for the current blit. Kept as a member to avoid
+	// allocating one for every drop every frame.
+	private final RectF mDestination = new RectF();
+	
+	// Visible drops for the current frame, gathered before sorting. These are
+	// grown as needed, so they are only reallocated when the drop count rises.
+	private int mVisibleCount = 0;
+	private float[] mVisibleX = new float[0];
+	private float[] mVisibleY = new float[0];
+	private int[] mVisibleState = new int[0];
+	// Counting sort buckets. mBucketStarts[s] is the index into mSortedDrops
+	// of the first drop with state s.
+	private final int[] mBucketStarts = new int[MAX_STATES + 1];
+	private final int[] mBucketFill = new int[MAX_STATES];
+	private int[] mSortedDrops = new int[0];
+	
+	// Bulk drawing data.
+	private final float[] mBatchVertices = new float[MAX_BATCH_SIZE * 8];
+	private final float[] mBatchTextures = new float[MAX_BATCH_SIZE * 8];
+	private final short[] mBatchIndices = new short[MAX_BATCH_SIZE * 6];
 	
-	public void process(Canvas canvas) {
-		for (Drop drop : Drop.getDropManager().getBoundDrops()) {
+	// Whether each sprite of the current set is drawn as a point, and the
+	// size of the point.
+	private final boolean[] mPointSprites =
+			new boolean[PixelatedPreferences.RenderPrefs.BITMAP_COUNT_MAX];
+	private final float[] mPointSizes =
+			new float[PixelatedPreferences.RenderPrefs.BITMAP_COUNT_MAX];
+	// Point centres for the current drawPoints() call. Grown as needed.
+	private float[] mPoints = new float[0];
+	
+	// The area of the screen covered by drops this frame or the last.
+	private final DirtyRegion mDirtyRegion = new DirtyRegion();
+	
+	// Software framebuffer, for sets drawn with the raster.
+	private final SoftwareRaster mRaster = new SoftwareRaster(0, 0);
+	
+	// The current set's background, pre-rendered for the screen size.
+	private final BackgroundCache mBackground = new BackgroundCache();
+	
+	
+	protected SystemRender(World world) {
+		super(world);
+		
+		// Two triangles per drop: (0, 1, 2) and (0, 2, 3).
+		for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+			mBatchIndices[i * 6] = (short) (i * 4);
+			mBatchIndices[i * 6 + 1] = (short) (i * 4 + 1);
+			mBatchIndices[i * 6 + 2] = (short) (i * 4 + 2);
+			mBatchIndices[i * 6 + 3] = (short) (i * 4);
+			mBatchIndices[i * 6 + 4] = (short) (i * 4 + 2);
+			mBatchIndices[i * 6 + 5] = (short) (i * 4 + 3);
+		}
+	}
+	
+	/**
+	 * Gathers and sorts the visible drops for this frame, and updates the
+	 * dirty region. This must be called after all movement for the frame has
+	 * been done, and before render().
+	 */
+	protected void process() {
+		mDrawnCount = 0;
+		mCulledCount = 0;
+		
+		ExecutionPlan plan = mWorld.getPlan();
+		PixelatedPreferences.RenderPrefs renderPrefs =
+				plan.preferences.renderPrefs;
+		SpriteAtlas atlas = renderPrefs.atlas;
+		int spriteCount = plan.spriteCount;
+		int stateCount = spriteCount * plan.colorCount;
+		
+		gatherVisibleDrops(atlas, spriteCount);
+		sortVisibleDrops(stateCount);
+		
+		if (renderPrefs.dirtyRects) {
+			updateDirtyRegion(atlas, spriteCount);
+		}
+	}
+	
+	/**
+	 * Draws the drops gathered by the last call to process().
+	 * 
+	 * @param target - the target to draw to.
+	 */
+	public void render(RenderTarget target) {
+		ExecutionPlan plan = mWorld.getPlan();
+		PixelatedPreferences prefs = plan.preferences;
+		PixelatedPreferences.RenderPrefs renderPrefs = prefs.renderPrefs;
+		int spriteCount = plan.spriteCount;
+		
+		if (plan.drawPoints) {
+			drawPoints(target, renderPrefs, spriteCount);
+		}
+		switch (plan.drawMode) {
+		case ExecutionPlan.DRAW_RASTER: {
+			drawRaster(target, prefs, spriteCount);
+			break;
+		}
+		
+		case ExecutionPlan.DRAW_BULK: {
+			drawBulk(target, renderPrefs, spriteCount);
+			break;
+		}
+		
+		default: {
+			drawSorted(target, renderPrefs, spriteCount);
+			break;
+		}
+		}
+		mDrawnCount = mVisibleCount;
+	}
+	
+	/**
+	 * Collects the position and render state of every drop within the
+	 * viewport.
+	 * 
+	 * @param atlas - the current set's sprite atlas.
+	 * @param spriteCount - the number of sprites in the atlas.
+	 */
+	private void gatherVisibleDrops(SpriteAtlas atlas, int spriteCount) {
+		List<Drop> drops = mWorld.getDropManager().getBoundDrops();
+		int dropCount = drops.size();
+		ensureCapacity(dropCount);
+		
+		mVisibleCount = 0;
+		for (int i = 0; i < dropCount; i++) {
+			Drop drop = drops.get(i);
 			ComponentRenderable renderComponent;
 			ComponentPosition positionComponent;
 			try {
@@ -28,12 +206,340 @@ public class SystemRender extends PixelatedSystem {
 				continue;
 			}
 			
-			Paint filter = renderComponent.filter;
-			Bitmap bitmap = renderComponent.bitmap;
+			Rect region = atlas.getRegion(renderComponent.sprite);
 			float posX = positionComponent.x;
 			float posY = positionComponent.y;
 			
-			canvas.drawBitmap(bitmap, posX, posY, filter);
+			if (!isVisible(posX, posY, region.width(), region.height())) {
+				mCulledCount++;
+				continue;
+			}
+			
+			mVisibleX[mVisibleCount] = posX;
+			mVisibleY[mVisibleCount] = posY;
+			mVisibleState[mVisibleCount] =
+					renderComponent.color * spriteCount + renderComponent.sprite;
+			mVisibleCount++;
+		}
+	}
+	
+	/**
+	 * Counting sorts the visible drops by render state into mSortedDrops.
+	 * 
+	 * @param stateCount - the number of possible render states.
+	 */
+	private void sortVisibleDrops(int stateCount) {
+		for (int state = 0; state <= stateCount; state++) {
+			mBucketStarts[state] = 0;
+		}
+		for (int i = 0; i < mVisibleCount; i++) {
+			mBucketStarts[mVisibleState[i] + 1]++;
+		}
+		for (int state = 0; state < stateCount; state++) {
+			mBucketStarts[state + 1] += mBucketStarts[state];
+			mBucketFill[state] = mBucketStarts[state];
+		}
+		for (int i = 0; i < mVisibleCount; i++) {
+			mSortedDrops[mBucketFill[mVisibleState[i]]++] = i;
+		}
+	}
+	
+	/**
+	 * Marks the bounds of every visible drop in the dirty region.
+	 */
+	private void updateDirtyRegion(SpriteAtlas atlas, int spriteCount) {
+		mDirtyRegion.begin();
+		for (int i = 0; i < mVisibleCount; i++) {
+			Rect region = atlas.getRegion(mVisibleState[i] % spriteCount);
+			mDirtyRegion.add(mVisibleX[i], mVisibleY[i],
+					mVisibleX[i] + region.width(),
+					mVisibleY[i] + region.height());
+		}
+		mDirtyRegion.end();
+	}
+	
+	/**
+	 * Draws the sorted drops one blit at a time.
+	 */
+	private void drawSorted(RenderTarget target,
+			PixelatedPreferences.RenderPrefs renderPrefs, int spriteCount) {
+		SpriteAtlas atlas = renderPrefs.atlas;
+		Bitmap[] tints = renderPrefs.tints;
+		
+		for (int i = 0; i < mVisibleCount; i++) {
+			int drop = mSortedDrops[i];
+			int state = mVisibleState[drop];
+			if (mPointSprites[state % spriteCount]) {
+				continue;
+			}
+			Rect region = atlas.getRegion(state % spriteCount);
+			float posX = mVisibleX[drop];
+			float posY = mVisibleY[drop];
+			
+			mDestination.set(posX, posY,
+					posX + region.width(), posY + region.height());
+			target.drawSprite(tints[state / spriteCount], region, mDestination);
 		}
 	}
+	
+	/**
+	 * Draws the sorted drops with one drawSprites() call per colour (or per
+	 * MAX_BATCH_SIZE drops, whichever is smaller).
+	 */
+	private void drawBulk(RenderTarget target,
+			PixelatedPreferences.RenderPrefs renderPrefs, int spriteCount) {
+		SpriteAtlas atlas = renderPrefs.atlas;
+		Bitmap[] tints = renderPrefs.tints;
+		
+		for (int color = 0; color < tints.length; color++) {
+			int start = mBucketStarts[color * spriteCount];
+			int end = mBucketStarts[(color + 1) * spriteCount];
+			
+			int batchSize = 0;
+			for (int i = start; i < end; i++) {
+				int drop = mSortedDrops[i];
+				int sprite = mVisibleState[drop] % spriteCount;
+				if (mPointSprites[sprite]) {
+					continue;
+				}
+				Rect region = atlas.getRegion(sprite);
+				float left = mVisibleX[drop];
+				float top = mVisibleY[drop];
+				float right = left + region.width();
+				float bottom = top + region.height();
+				
+				int offset = batchSize * 8;
+				setQuad(mBatchVertices, offset, left, top, right, bottom);
+				setQuad(mBatchTextures, offset, region.left, region.top,
+						region.right, region.bottom);
+				batchSize++;
+				
+				if (batchSize == MAX_BATCH_SIZE) {
+					drawBatch(target, tints[color], batchSize);
+					batchSize = 0;
+				}
+			}
+			
+			if (batchSize > 0) {
+				drawBatch(target, tints[color], batchSize);
+			}
+		}
+	}
+	
+	/**
+	 * Draws the drops with point sprites, one drawPoints() call per colour and
+	 * sprite. Each point is centred on where the sprite would have been.
+	 */
+	private void drawPoints(RenderTarget target,
+			PixelatedPreferences.RenderPrefs renderPrefs, int spriteCount) {
+		SpriteAtlas atlas = renderPrefs.atlas;
+		int[] colors = renderPrefs.colors;
+		int stateCount = spriteCount * colors.length;
+		
+		for (int state = 0; state < stateCount; state++) {
+			int sprite = state % spriteCount;
+			int start = mBucketStarts[state];
+			int end = mBucketStarts[state + 1];
+			if (!mPointSprites[sprite] || start == end) {
+				continue;
+			}
+			
+			Rect region = atlas.getRegion(sprite);
+			float halfWidth = region.width() / 2f;
+			float halfHeight = region.height() / 2f;
+			int pointCount = 0;
+			for (int i = start; i < end; i++) {
+				int drop = mSortedDrops[i];
+				mPoints[pointCount * 2] = mVisibleX[drop] + halfWidth;
+				mPoints[pointCount * 2 + 1] = mVisibleY[drop] + halfHeight;
+				pointCount++;
+			}
+			
+			// Alpha is ignored in set colours.
+			target.drawPoints(mPoints, pointCount,
+					0xFF000000 | colors[state / spriteCount],
+					mPointSizes[sprite]);
+		}
+	}
+	
+	/**
+	 * Composites the background and sorted drops into the software raster, and
+	 * copies the result to the target.
+	 */
+	private void drawRaster(RenderTarget target, PixelatedPreferences prefs,
+			int spriteCount) {
+		SpriteAtlas atlas = prefs.renderPrefs.atlas;
+		int[] colors = prefs.renderPrefs.colors;
+		int[] atlasPixels = atlas.getPixels();
+		
+		if (mBackground.isSolid()) {
+			mRaster.clear(mBackground.getColor());
+		} else if (mBackground.getRowColors() != null) {
+			mRaster.clearRows(mBackground.getRowColors());
+		} else if (!mBackground.isEmpty()) {
+			mRaster.copyFrom(mBackground.getPixels());
+		}
+		// An empty atlas means there are no visible drops.
+		int atlasWidth = (mVisibleCount > 0) ? atlas.getBitmap().getWidth() : 0;
+		for (int i = 0; i < mVisibleCount; i++) {
+			int drop = mSortedDrops[i];
+			int state = mVisibleState[drop];
+			Rect region = atlas.getRegion(state % spriteCount);
+			
+			mRaster.blit(atlasPixels, atlasWidth,
+					region.left, region.top,
+					region.width(), region.height(),
+					Math.round(mVisibleX[drop]), Math.round(mVisibleY[drop]),
+					colors[state / spriteCount]);
+		}
+		
+		target.drawPixels(mRaster.getPixels(),
+				mRaster.getWidth(), mRaster.getHeight());
+	}
+	
+	/**
+	 * Writes the corners of a rectangle, clockwise from the top left, into
+	 * the given array.
+	 */
+	private static void setQuad(float[] quads, int offset,
+			float left, float top, float right, float bottom) {
+		quads[offset] = left;
+		quads[offset + 1] = top;
+		quads[offset + 2] = right;
+		quads[offset + 3] = top;
+		quads[offset + 4] = right;
+		quads[offset + 5] = bottom;
+		quads[offset + 6] = left;
+		quads[offset + 7] = bottom;
+	}
+	
+	/**
+	 * Draws the first batchSize quads of the batch buffers.
+	 */
+	private void drawBatch(RenderTarget target, Bitmap bitmap, int batchSize) {
+		target.drawSprites(bitmap, mBatchVertices, mBatchTextures,
+				mBatchIndices, batchSize);
+	}
+	
+	/**
+	 * Grows the per-frame drop arrays to hold at least dropCount drops.
+	 */
+	private void ensureCapacity(int dropCount) {
+		if (mVisibleX.length >= dropCount) {
+			return;
+		}
+		
+		mVisibleX = new float[dropCount];
+		mVisibleY = new float[dropCount];
+		mVisibleState = new int[dropCount];
+		mSortedDrops = new int[dropCount];
+		mPoints = new float[dropCount * 2];
+	}
+	
+	/**
+	 * Checks whether a bitmap drawn with its top left corner at x, y would
+	 * overlap the viewport.
+	 * 
+	 * @param x - left side of the bitmap.
+	 * @param y - top side of the bitmap.
+	 * @param width - width of the bitmap.
+	 * @param height - height of the bitmap.
+	 * @return true if any part of the bitmap lies on the screen.
+	 */
+	private boolean isVisible(float x, float y, int width, int height) {
+		return x + width > 0
+				&& y + height > 0
+				&& x < mScreenWidth
+				&& y < mScreenHeight;
+	}
+	
+	/**
+	 * Update the viewport used for culling. This should be called whenever
+	 * the screen orientation or resolution changes.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	protected void setScreenDimensions(int width, int height) {
+		mScreenWidth = width;
+		mScreenHeight = height;
+		mDirtyRegion.setSize(width, height);
+		mRaster.setSize(width, height);
+		mBackground.setSize(width, height);
+	}
+	
+	/**
+	 * Forces the next frame to be fully redrawn. This should be called
+	 * whenever the screen contents are lost.
+	 */
+	protected void invalidate() {
+		mDirtyRegion.invalidate();
+	}
+	
+	/**
+	 * Update the render system for the current drop set. This should be
+	 * called whenever the current drop set changes.
+	 * 
+	 * @param diff - what changed from the previous set.
+	 */
+	protected void onPreferencesUpdated(PresetDiff diff) {
+		PixelatedPreferences prefs = mWorld.getPreferences();
+		
+		if (diff.changed(PresetDiff.BACKGROUND)) {
+			mBackground.setPaint(prefs.backgroundColor);
+		}
+		mDirtyRegion.invalidate();
+		if (!diff.changed(PresetDiff.SPRITES | PresetDiff.DRAWING)) {
+			return;
+		}
+		
+		SpriteAtlas atlas = prefs.renderPrefs.atlas;
+		for (int i = 0; i < mPointSprites.length; i++) {
+			mPointSprites[i] = false;
+		}
+		for (int i = 0; i < atlas.getSpriteCount(); i++) {
+			float size = atlas.getApparentSize(i);
+			mPointSprites[i] = prefs.renderPrefs.pointSize > 0
+					&& size <= prefs.renderPrefs.pointSize;
+			mPointSizes[i] = Math.max(1, size);
+		}
+	}
+	
+	/**
+	 * Returns the current set's background.
+	 * 
+	 * @return the background, pre-rendered for the screen size.
+	 */
+	protected BackgroundCache getBackground() {
+		return mBackground;
+	}
+	
+	/**
+	 * Returns the region of the screen that changed this frame. Only updated
+	 * when the current drop set uses dirty rects.
+	 * 
+	 * @return the dirty region.
+	 */
+	protected DirtyRegion getDirtyRegion() {
+		return mDirtyRegion;
+	}
+	
+	/**
+	 * Returns the number of drops drawn during the last frame.
+	 * 
+	 * @return the number of drops drawn during the last frame.
+	 */
+	protected int getDrawnCount() {
+		return mDrawnCount;
+	}
+	
+	/**
+	 * Returns the number of bound drops that were skipped during the last
+	 * frame because they were outside of the viewport.
+	 * 
+	 * @return the number of drops culled during the last frame.
+	 */
+	protected int getCulledCount() {
+		return mCulledCount;
+	}
 }
@@ -1,7 +1,6 @@
 package com.squishums.android.pixelatedmood.system;
 
-import android.graphics.Canvas;
-
+import com.squishums.android.pixelatedmood.World;
 import com.squishums.android.pixelatedmood.component.ComponentPhysics;
 import com.squishums.android.pixelatedmood.component.ComponentPosition;
 import com.squishums.android.pixelatedmood.drop.Drop;
@@ -12,10 +11,12 @@ import com.squishums.android.pixelatedmood.drop.Drop;
  */
 public class SystemWind extends PixelatedSystem {
 		
-	protected SystemWind() { }
+	protected SystemWind(World world) {
+		super(world);
+	}
 	
-	public void process(Canvas canvas) {
-		for (Drop drop : Drop.getDropManager().getBoundDrops()) {
+	public void process() {
+		for (Drop drop : mWorld.getDropManager().getBoundDrops()) {
 			ComponentPhysics physicsComponent;
 			ComponentPosition positionComponent;
 			try {
@@ -0,0 +1,117 @@
+package com.squishums.android.pixelatedmood.util;
+
+/**
+ * A small, fast and seedable pseudo-random number generator (xorshift64*).
+ * Unlike java.util.Random, it isn't thread safe, so it pays nothing for
+ * synchronization. Each thread should use its own instance, either created
+ * with a seed or from get().
+ *
+ * Seeds are scrambled with the SplitMix64 finalizer, so similar seeds (e.g.
+ * consecutive ones) still give unrelated sequences. The per-thread instances
+ * from get() are seeded from the clock, so for reproducible results create
+ * an instance with a fixed seed instead.
+ */
+public class FastRandom {
+
+	// Weyl sequence increment used by SplitMix64.
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	// Scale from 24 random bits to a float in [0,1).
+	private static final float FLOAT_UNIT = 1.0f / (1 << 24);
+	
+	// Seeds for the per-thread instances.
+	private static long mBaseSeed = System.nanoTime();
+	private static long mStreamCount = 0;
+	
+	private static final ThreadLocal<FastRandom> mThreadRandoms =
+			new ThreadLocal<FastRandom>() {
+		@Override
+		protected FastRandom initialValue() {
+			return new FastRandom(nextStreamSeed());
+		}
+	};
+	
+	private long mState;
+	
+	
+	/**
+	 * Creates a generator with the given seed.
+	 *
+	 * @param seed - any value. Equal seeds give equal sequences.
+	 */
+	public FastRandom(long seed) {
+		setSeed(seed);
+	}
+	
+	/**
+	 * Returns the calling thread's generator.
+	 *
+	 * @return the generator for the current thread.
+	 */
+	public static FastRandom get() {
+		return mThreadRandoms.get();
+	}
+	
+	/**
+	 * Restarts the sequence from the given seed.
+	 *
+	 * @param seed - any value. Equal seeds give equal sequences.
+	 */
+	public void setSeed(long seed) {
+		mState = mix(seed);
+		if (mState == 0) {
+			// Zero is the one state xorshift can't leave.
+			mState = GOLDEN_GAMMA;
+		}
+	}
+	
+	/**
+	 * Returns the next 64 random bits.
+	 *
+	 * @return a uniformly distributed long.
+	 */
+	public long nextLong() {
+		long x = mState;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		mState = x;
+		return x * 0x2545F4914F6CDD1DL;
+	}
+	
+	/**
+	 * Returns a random int in [0, n). For the small ranges used here, the bias
+	 * from mapping 32 bits onto n values is negligible.
+	 *
+	 * @param n - the number of possible values. Must be positive.
+	 * @return a uniformly distributed int in [0, n).
+	 */
+	public int nextInt(int n) {
+		return (int) (((nextLong() >>> 32) * n) >>> 32);
+	}
+	
+	/**
+	 * Returns a random float in [0, 1).
+	 *
+	 * @return a uniformly distributed float.
+	 */
+	public float nextFloat() {
+		return (nextLong() >>> 40) * FLOAT_UNIT;
+	}
+	
+	/**
+	 * Returns the seed for the next per-thread generator.
+	 */
+	private static synchronized long nextStreamSeed() {
+		mStreamCount++;
+		return mBaseSeed + mStreamCount * GOLDEN_GAMMA;
+	}
+	
+	/**
+	 * The SplitMix64 finalizer. Scrambles the bits of z.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
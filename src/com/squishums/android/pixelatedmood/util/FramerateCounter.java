@@ -46,12 +46,17 @@ public class FramerateCounter {
 	private float mAverageFramerate = 0;
 	private float mCurrentFramerate = 0;
 	private float mLowestFramerate = -1;
+	// Render statistics for the most recent frame.
+	private int mDrawnCount = 0;
+	private int mCulledCount = 0;
 	
 	// Class-wide strings to prevent having to create new strings every frame,
 	// which causes too many allocations and skews the FPS data.
 	private String mAverageFramerateString = "";
 	private String mCurrentFramerateString = "";
 	private String mLowestFramerateString = "";
+	private String mDrawnCountString = "";
+	private String mCulledCountString = "";
 	
 	// Font drawing data
 	private int mFontHeight;
@@ -110,6 +115,18 @@ public class FramerateCounter {
 		mFrameCount++;
 	}
 	
+	/**
+	 * Record the number of drops drawn and culled during the current frame.
+	 * These are printed along with the FPS data.
+	 * 
+	 * @param drawn - the number of drops drawn this frame.
+	 * @param culled - the number of drops skipped this frame.
+	 */
+	public void setDropCounts(int drawn, int culled) {
+		mDrawnCount = drawn;
+		mCulledCount = culled;
+	}
+	
 	/**
 	 * Print the FPS to the canvas. This should be called after all other draws
 	 * have completed to ensure that the FPS counter is on top.
@@ -127,13 +144,15 @@ public class FramerateCounter {
 				x - PADDING_HORIZONTAL,
 				y - PADDING_VERTICAL,
 				x + mFontWidth + PADDING_HORIZONTAL,
-				y + mFontHeight * 4 + PADDING_VERTICAL,
+				y + mFontHeight * 6 + PADDING_VERTICAL,
 				mBackgroundPaint);
 		
 		if (mFrameCount % STRING_UPDATE_DELAY == 0) {
 			mAverageFramerateString = "Current: " + ((int) mCurrentFramerate);
 			mCurrentFramerateString = "Average: " + ((int) mAverageFramerate);
 			mLowestFramerateString = "Lowest:  " + ((int) mLowestFramerate);
+			mDrawnCountString = "Drawn:   " + mDrawnCount;
+			mCulledCountString = "Culled:  " + mCulledCount;
 		}
 		
 		int offset = mFontHeight;
@@ -144,6 +163,10 @@ public class FramerateCounter {
 		canvas.drawText(mCurrentFramerateString, x, y + offset, mFontPaint);
 		offset += mFontHeight;
 		canvas.drawText(mLowestFramerateString, x, y + offset, mFontPaint);
+		offset += mFontHeight;
+		canvas.drawText(mDrawnCountString, x, y + offset, mFontPaint);
+		offset += mFontHeight;
+		canvas.drawText(mCulledCountString, x, y + offset, mFontPaint);
 	}
 	
 	/**
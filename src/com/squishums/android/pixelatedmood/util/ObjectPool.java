@@ -55,13 +55,40 @@ public abstract class ObjectPool<T> {
 	 * 
 	 * @param size - the new size of the object pool.
 	 */
-	 void setSize(int size) {
+	protected void setSize(int size) {
 		mSize = size;
 		mObjects = new ArrayList<T>(size);
 		
 		fill();
 	}
 	
+	/**
+	 * Changes the maximum size of the pool, keeping the objects that are
+	 * bound. Unbound objects are allocated or dropped to make up the new size.
+	 * The new size must be at least the number of bound objects.
+	 * 
+	 * @param size - the new size of the object pool.
+	 * @return the unbound objects dropped from the pool.
+	 */
+	public List<T> resize(int size) {
+		int boundCount = mSize - mObjects.size();
+		if (size < boundCount) {
+			Log.e(LOG_TAG, "Attempted to shrink the pool below its bound objects.");
+			size = boundCount;
+		}
+		
+		List<T> dropped = new ArrayList<T>();
+		while (mObjects.size() > size - boundCount) {
+			dropped.add(mObjects.remove(mObjects.size() - 1));
+		}
+		while (mObjects.size() < size - boundCount) {
+			mObjects.add(createObject());
+		}
+		mSize = size;
+		
+		return dropped;
+	}
+	
 	 /**
 	  * Returns an object back to the object pool. The data within the object
 	  * becomes undefined until it is rebound.
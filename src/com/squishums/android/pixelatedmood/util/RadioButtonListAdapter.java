@@ -5,11 +5,13 @@ import java.util.Arrays;
 import java.util.List;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.RadioButton;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
@@ -23,6 +25,22 @@ import com.squishums.android.pixelatedmood.R;
  */
 public class RadioButtonListAdapter extends ArrayAdapter<String[]> {
 
+	/**
+	 * Supplies the icon shown beside each radio button.
+	 */
+	public interface IconProvider {
+		
+		/**
+		 * Returns the icon for a radio button. This is called from getView(),
+		 * so it must not block; return null until the icon is ready, and call
+		 * notifyDataSetChanged() once it is.
+		 * 
+		 * @param position - the position of the radio button.
+		 * @return the icon, or null to leave the space blank.
+		 */
+		public Bitmap getIcon(int position);
+	}
+	
 	// A list of titles and summaries of the radio button. The first index in
 	// the string array is the title, the second (if it exists) is the summary.
 	private List<String[]> mTitles = new ArrayList<String[]>();
@@ -30,6 +48,8 @@ public class RadioButtonListAdapter extends ArrayAdapter<String[]> {
 	private List<RadioButton> mRadioGroup = new ArrayList<RadioButton>();
 	// The index of the currently selected radio button.
 	private int mSelected;
+	// Supplies the icons, or null if the list has none.
+	private IconProvider mIconProvider;
 	
 	
 	/**
@@ -50,6 +70,16 @@ public class RadioButtonListAdapter extends ArrayAdapter<String[]> {
 		mSelected = initValue;
 	}
 	
+	/**
+	 * Show an icon beside each radio button.
+	 * 
+	 * @param provider - supplies the icons, or null for no icons.
+	 */
+	public void setIconProvider(IconProvider provider) {
+		mIconProvider = provider;
+		notifyDataSetChanged();
+	}
+	
 	/**
 	 * Not yet implemented.
 	 */
@@ -112,6 +142,8 @@ public class RadioButtonListAdapter extends ArrayAdapter<String[]> {
 					(TextView) rowView.findViewById(R.id.options_summary);
 			holder.radioButton =
 					(RadioButton) rowView.findViewById(R.id.options_radioButton);
+			holder.iconView =
+					(ImageView) rowView.findViewById(R.id.options_thumbnail);
 
 			mRadioGroup.add(holder.radioButton);
 			
@@ -157,6 +189,15 @@ public class RadioButtonListAdapter extends ArrayAdapter<String[]> {
 		} else {
 			holder.summaryView.setVisibility(View.GONE);
 		}
+		
+		// Update the icon. The space is kept while the icon loads, so the row
+		// doesn't shift when it appears.
+		if (mIconProvider != null) {
+			holder.iconView.setImageBitmap(mIconProvider.getIcon(position));
+			holder.iconView.setVisibility(View.VISIBLE);
+		} else {
+			holder.iconView.setVisibility(View.GONE);
+		}
 	}
 	
 	private OnClickListener getClickListener() {
@@ -184,5 +225,6 @@ public class RadioButtonListAdapter extends ArrayAdapter<String[]> {
 		public TextView titleView;
 		public TextView summaryView;
 		public RadioButton radioButton;
+		public ImageView iconView;
 	}
 }
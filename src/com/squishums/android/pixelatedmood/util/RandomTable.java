@@ -0,0 +1,54 @@
+package com.squishums.android.pixelatedmood.util;
+
+/**
+ * A pre-generated table of uniform random floats, for hot paths that need
+ * many random values per item. Reading the next value is an array load.
+ *
+ * The table is read in order. Each time the end is reached, reading restarts
+ * at a random position, so the values don't repeat in a fixed cycle. The
+ * values come from a FastRandom, so a table is as reproducible as its
+ * generator.
+ */
+public class RandomTable {
+
+	private final float[] mValues;
+	private final FastRandom mRandom;
+	private int mIndex = 0;
+	
+	
+	/**
+	 * Creates and fills a table.
+	 *
+	 * @param size - the number of values to pre-generate.
+	 * @param random - the generator to fill the table from.
+	 */
+	public RandomTable(int size, FastRandom random) {
+		mValues = new float[size];
+		mRandom = random;
+		for (int i = 0; i < size; i++) {
+			mValues[i] = random.nextFloat();
+		}
+	}
+	
+	/**
+	 * Returns the next value of the table.
+	 *
+	 * @return a random float in [0, 1).
+	 */
+	public float nextFloat() {
+		if (mIndex == mValues.length) {
+			mIndex = mRandom.nextInt(mValues.length);
+		}
+		return mValues[mIndex++];
+	}
+	
+	/**
+	 * Returns a random int in [0, n).
+	 *
+	 * @param n - the number of possible values. Must be positive.
+	 * @return a random int in [0, n).
+	 */
+	public int nextInt(int n) {
+		return (int) (nextFloat() * n);
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * Compiles the drop preset XML into the binary blob read by
+ * DropPresetsBinaryParser. This runs on a plain JVM, outside of the Android
+ * build, and must be rerun whenever a preset XML file changes:
+ *
+ *   javac -d /tmp/presets tools/PresetCompiler.java
+ *   java -cp /tmp/presets PresetCompiler [res/raw] [assets/presets.bin]
+ *
+ * The presets are compiled in the order PixelatedPreferencesManager expects
+ * them. Attributes are interpreted exactly as DropPresetsXmlParser does, so
+ * both paths load the same values. Unknown sections and attributes, which the
+ * parser would silently ignore, are rejected. The values themselves are
+ * checked by PresetValidator when the preset is loaded. The layout of the blob
+ * is described at the top of DropPresetsBinaryParser.java.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+
+public class PresetCompiler {
+
+	// Must match DropPresetsBinaryParser.
+	private static final int MAGIC = 0x504D5053;
+	private static final int FORMAT_VERSION = 2;
+	
+	private static final int SECTION_DROP = 1 << 0;
+	private static final int SECTION_PHYSICS = 1 << 1;
+	private static final int SECTION_WIND = 1 << 2;
+	private static final int SECTION_GRAVITY = 1 << 3;
+	private static final int SECTION_PULSAR = 1 << 4;
+	private static final int SECTION_RENDER = 1 << 5;
+	
+	private static final String[] LAYER_FORMATS = new String[] {
+		"ARGB_8888", "RGB_565", "ARGB_4444", "ALPHA_8"
+	};
+	
+	// Must match PixelatedPreferences.RenderPrefs.
+	private static final int BITMAP_COUNT_MAX = 10;
+	private static final int COLOR_COUNT_MAX = 10;
+	
+	// Must match the XML_* tags of PixelatedPreferences. Bitmaps and colours
+	// are numbered, and checked separately.
+	private static final String ROOT_TAG = "DropPresets";
+	private static final String[][] SECTION_ATTRIBUTES = new String[][] {
+		{ "DropPrefs", "count", "width", "height", "spawnRate", "recycle" },
+		{ "PhysicsPrefs", "veloDampenFactor" },
+		{ "WindPrefs", "angle", "force", "forceVar" },
+		{ "GravityPrefs", "force", "useZ" },
+		{ "PulsarPrefs", "force", "falloffExponent", "minDistance" },
+		{ "RenderPrefs", "trails", "trailDecay", "layerScale", "layerFormat",
+				"pointSize", "bulkDraw", "dirtyRects", "raster" }
+	};
+	
+	// Must match PixelatedPreferencesManager.
+	private static final String[] PRESET_NAMES = new String[] {
+		"Snowflake", "Raindrop", "Shape", "Orb", "Ash"
+	};
+	private static final String[] PRESET_FILES = new String[] {
+		"drop_presets_snowflake.xml",
+		"drop_presets_raindrop.xml",
+		"drop_presets_shape.xml",
+		"drop_presets_orb.xml",
+		"drop_presets_ash.xml"
+	};
+	
+	
+	public static void main(String[] args) throws Exception {
+		File rawDir = new File((args.length > 0) ? args[0] : "res/raw");
+		File output = new File((args.length > 1) ? args[1]
+				: "assets/presets.bin");
+		
+		DocumentBuilder builder =
+				DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		
+		// Compile each preset on its own first, so the offset table can be
+		// written ahead of them.
+		byte[][] presets = new byte[PRESET_NAMES.length][];
+		for (int i = 0; i < PRESET_NAMES.length; i++) {
+			Document document =
+					builder.parse(new File(rawDir, PRESET_FILES[i]));
+			checkStructure(document, PRESET_FILES[i]);
+			ByteArrayOutputStream presetBytes = new ByteArrayOutputStream();
+			DataOutputStream presetOut = new DataOutputStream(presetBytes);
+			writePreset(presetOut, PRESET_NAMES[i], document);
+			presetOut.flush();
+			presets[i] = presetBytes.toByteArray();
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeShort(FORMAT_VERSION);
+		out.writeShort(presets.length);
+		int offset = 8 + 4 * presets.length;
+		for (byte[] preset : presets) {
+			out.writeInt(offset);
+			offset += preset.length;
+		}
+		for (byte[] preset : presets) {
+			out.write(preset);
+		}
+		out.flush();
+		
+		if (output.getParentFile() != null) {
+			output.getParentFile().mkdirs();
+		}
+		FileOutputStream file = new FileOutputStream(output);
+		try {
+			bytes.writeTo(file);
+		} finally {
+			file.close();
+		}
+		
+		System.out.println("Wrote " + PRESET_NAMES.length + " presets to "
+				+ output + " (" + bytes.size() + " bytes)");
+	}
+	
+	private static void writePreset(DataOutputStream out, String name,
+			Document document) throws IOException {
+		Element drop = getSection(document, "DropPrefs");
+		Element physics = getSection(document, "PhysicsPrefs");
+		Element wind = getSection(document, "WindPrefs");
+		Element gravity = getSection(document, "GravityPrefs");
+		Element pulsar = getSection(document, "PulsarPrefs");
+		Element render = getSection(document, "RenderPrefs");
+		
+		int sections = 0;
+		sections |= (drop != null) ? SECTION_DROP : 0;
+		sections |= (physics != null) ? SECTION_PHYSICS : 0;
+		sections |= (wind != null) ? SECTION_WIND : 0;
+		sections |= (gravity != null) ? SECTION_GRAVITY : 0;
+		sections |= (pulsar != null) ? SECTION_PULSAR : 0;
+		sections |= (render != null) ? SECTION_RENDER : 0;
+		
+		writeString(out, name);
+		out.writeByte(sections);
+		
+		if (drop != null) {
+			out.writeInt(Integer.parseInt(getRequired(drop, "count")));
+			out.writeInt(Integer.parseInt(getRequired(drop, "width")));
+			out.writeInt(Integer.parseInt(getRequired(drop, "height")));
+			String spawnRate = getOptional(drop, "spawnRate");
+			out.writeFloat((spawnRate != null)
+					? Float.parseFloat(spawnRate) : 0);
+			out.writeBoolean(Boolean.parseBoolean(
+					getOptional(drop, "recycle")));
+		}
+		if (physics != null) {
+			out.writeFloat(Float.parseFloat(
+					getRequired(physics, "veloDampenFactor")));
+		}
+		if (wind != null) {
+			out.writeFloat(Float.parseFloat(getRequired(wind, "angle")));
+			out.writeFloat(Float.parseFloat(getRequired(wind, "force")));
+			out.writeFloat(Float.parseFloat(getRequired(wind, "forceVar")));
+		}
+		if (gravity != null) {
+			out.writeFloat(Float.parseFloat(getRequired(gravity, "force")));
+			out.writeBoolean(Boolean.parseBoolean(
+					getOptional(gravity, "useZ")));
+		}
+		if (pulsar != null) {
+			out.writeFloat(Float.parseFloat(getRequired(pulsar, "force")));
+			out.writeFloat(Float.parseFloat(
+					getRequired(pulsar, "falloffExponent")));
+			out.writeFloat(Float.parseFloat(
+					getRequired(pulsar, "minDistance")));
+		}
+		if (render != null) {
+			writeRenderPrefs(out, render);
+		}
+		
+		System.out.println("Compiled " + name);
+	}
+	
+	private static void writeRenderPrefs(DataOutputStream out, Element render)
+			throws IOException {
+		List<String> bitmaps = new ArrayList<String>();
+		for (int i = 1; i <= BITMAP_COUNT_MAX; i++) {
+			String bitmap = getOptional(render, "bitmap" + i);
+			if (bitmap != null) {
+				bitmaps.add(bitmap);
+			}
+		}
+		out.writeByte(bitmaps.size());
+		for (String bitmap : bitmaps) {
+			writeString(out, bitmap);
+		}
+		
+		List<String> colors = new ArrayList<String>();
+		for (int i = 1; i <= COLOR_COUNT_MAX; i++) {
+			String color = getOptional(render, "color" + i);
+			if (color != null) {
+				colors.add(color);
+			}
+		}
+		out.writeByte(colors.size());
+		for (String color : colors) {
+			out.writeInt((int) Long.parseLong(color, 16));
+		}
+		
+		boolean trails = Boolean.parseBoolean(getOptional(render, "trails"));
+		String trailDecay = getOptional(render, "trailDecay");
+		String layerScaleValue = getOptional(render, "layerScale");
+		int layerScale = (layerScaleValue != null)
+				? Math.max(1, Integer.parseInt(layerScaleValue)) : 1;
+		String layerFormat = getOptional(render, "layerFormat");
+		String pointSize = getOptional(render, "pointSize");
+		boolean dirtyRects = Boolean.parseBoolean(
+				getOptional(render, "dirtyRects"));
+		
+		out.writeBoolean(trails);
+		out.writeInt((trailDecay != null) ? Integer.parseInt(trailDecay) : 0);
+		out.writeInt(layerScale);
+		out.writeByte(getLayerFormatCode(
+				(layerFormat != null) ? layerFormat : "ARGB_8888"));
+		out.writeFloat((pointSize != null) ? Float.parseFloat(pointSize) : 0);
+		out.writeBoolean(Boolean.parseBoolean(getOptional(render, "bulkDraw")));
+		out.writeBoolean(dirtyRects);
+		out.writeBoolean(Boolean.parseBoolean(getOptional(render, "raster"))
+				&& !trails && !dirtyRects && layerScale == 1);
+	}
+	
+	/**
+	 * Throws if the preset has a section or attribute the parser doesn't know,
+	 * e.g. a misspelt bitmap, which would otherwise just be left out.
+	 */
+	private static void checkStructure(Document document, String file) {
+		Element root = document.getDocumentElement();
+		if (!root.getTagName().equals(ROOT_TAG)) {
+			throw new IllegalArgumentException(file + ": root must be "
+					+ ROOT_TAG);
+		}
+		
+		NodeList children = root.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i).getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			
+			Element section = (Element) children.item(i);
+			List<String> known = getKnownAttributes(section.getTagName());
+			if (known == null) {
+				throw new IllegalArgumentException(file + ": unknown section "
+						+ section.getTagName());
+			}
+			
+			NamedNodeMap attributes = section.getAttributes();
+			for (int j = 0; j < attributes.getLength(); j++) {
+				String name = attributes.item(j).getNodeName();
+				if (!known.contains(name)
+						&& !isNumberedAttribute(section, name)) {
+					throw new IllegalArgumentException(file + ": unknown "
+							+ section.getTagName() + " attribute " + name);
+				}
+			}
+		}
+	}
+	
+	private static List<String> getKnownAttributes(String section) {
+		for (String[] attributes : SECTION_ATTRIBUTES) {
+			if (attributes[0].equals(section)) {
+				return Arrays.asList(attributes).subList(1, attributes.length);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Whether the attribute is one of the RenderPrefs bitmapN or colorN.
+	 */
+	private static boolean isNumberedAttribute(Element section, String name) {
+		if (!section.getTagName().equals("RenderPrefs")) {
+			return false;
+		}
+		
+		String[] prefixes = new String[] { "bitmap", "color" };
+		int[] maxima = new int[] { BITMAP_COUNT_MAX, COLOR_COUNT_MAX };
+		for (int i = 0; i < prefixes.length; i++) {
+			if (!name.startsWith(prefixes[i])) {
+				continue;
+			}
+			try {
+				int number = Integer.parseInt(
+						name.substring(prefixes[i].length()));
+				return number >= 1 && number <= maxima[i];
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the last element with the given tag, as the pull parser keeps
+	 * the last of any repeated section. Null if there isn't one.
+	 */
+	private static Element getSection(Document document, String tag) {
+		NodeList nodes = document.getElementsByTagName(tag);
+		if (nodes.getLength() == 0) {
+			return null;
+		}
+		return (Element) nodes.item(nodes.getLength() - 1);
+	}
+	
+	private static String getRequired(Element element, String attribute) {
+		String value = getOptional(element, attribute);
+		if (value == null) {
+			throw new IllegalArgumentException(element.getTagName()
+					+ " is missing " + attribute);
+		}
+		return value;
+	}
+	
+	private static String getOptional(Element element, String attribute) {
+		return element.hasAttribute(attribute)
+				? element.getAttribute(attribute) : null;
+	}
+	
+	private static int getLayerFormatCode(String layerFormat) {
+		for (int i = 0; i < LAYER_FORMATS.length; i++) {
+			if (LAYER_FORMATS[i].equals(layerFormat)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown layer format "
+				+ layerFormat);
+	}
+	
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
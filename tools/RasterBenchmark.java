@@ -0,0 +1,86 @@
+/*
+ * Desktop benchmark for the software raster. This runs on a plain JVM, outside
+ * of the Android build:
+ * 
+ *   javac -d /tmp/raster \
+ *       src/com/squishums/android/pixelatedmood/render/SoftwareRaster.java \
+ *       tools/RasterBenchmark.java
+ *   java -cp /tmp/raster RasterBenchmark [width] [height] [drops] [frames]
+ * 
+ * The drops are 16x16 sprites with a soft alpha falloff, similar to the
+ * bundled drop bitmaps, drawn at random positions with random colours.
+ */
+
+import java.util.Random;
+
+import com.squishums.android.pixelatedmood.render.SoftwareRaster;
+
+
+public class RasterBenchmark {
+
+	private static final int SPRITE_SIZE = 16;
+	private static final int WARMUP_FRAMES = 100;
+	
+	
+	public static void main(String[] args) {
+		int width = (args.length > 0) ? Integer.parseInt(args[0]) : 480;
+		int height = (args.length > 1) ? Integer.parseInt(args[1]) : 800;
+		int drops = (args.length > 2) ? Integer.parseInt(args[2]) : 700;
+		int frames = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+		
+		int[] sprite = createSprite();
+		int[] colors = new int[] { 0xFF000000, 0xFF222222, 0xFF444444 };
+		
+		// Positions are generated up front so only the raster is timed.
+		Random random = new Random(0);
+		int[] dropX = new int[drops];
+		int[] dropY = new int[drops];
+		int[] dropColor = new int[drops];
+		for (int i = 0; i < drops; i++) {
+			dropX[i] = random.nextInt(width + SPRITE_SIZE) - SPRITE_SIZE;
+			dropY[i] = random.nextInt(height + SPRITE_SIZE) - SPRITE_SIZE;
+			dropColor[i] = colors[random.nextInt(colors.length)];
+		}
+		
+		SoftwareRaster raster = new SoftwareRaster(width, height);
+		for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+			drawFrame(raster, sprite, dropX, dropY, dropColor, frame);
+		}
+		
+		long start = System.nanoTime();
+		for (int frame = 0; frame < frames; frame++) {
+			drawFrame(raster, sprite, dropX, dropY, dropColor, frame);
+		}
+		long elapsed = System.nanoTime() - start;
+		
+		System.out.println(width + "x" + height + ", " + drops + " drops: "
+				+ (elapsed / frames / 1000) + " us/frame");
+	}
+	
+	private static void drawFrame(SoftwareRaster raster, int[] sprite,
+			int[] dropX, int[] dropY, int[] dropColor, int frame) {
+		raster.clear(0xFFDDDDDD);
+		for (int i = 0; i < dropX.length; i++) {
+			raster.blit(sprite, SPRITE_SIZE, 0, 0, SPRITE_SIZE, SPRITE_SIZE,
+					dropX[i], (dropY[i] + frame) % raster.getHeight(),
+					dropColor[i]);
+		}
+	}
+	
+	/**
+	 * Creates a white sprite whose alpha falls off towards the edges.
+	 */
+	private static int[] createSprite() {
+		int[] sprite = new int[SPRITE_SIZE * SPRITE_SIZE];
+		float center = (SPRITE_SIZE - 1) / 2f;
+		for (int y = 0; y < SPRITE_SIZE; y++) {
+			for (int x = 0; x < SPRITE_SIZE; x++) {
+				float dx = (x - center) / center;
+				float dy = (y - center) / center;
+				int alpha = (int) Math.max(0, 255 * (1 - (dx*dx + dy*dy)));
+				sprite[y * SPRITE_SIZE + x] = (alpha << 24) | 0xFFFFFF;
+			}
+		}
+		return sprite;
+	}
+}